@@ -2,11 +2,14 @@ package org.overbaard.ci.multi.repo;
 
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
+import org.overbaard.ci.multi.repo.directory.utils.GrabProjectVersion;
 import org.overbaard.ci.multi.repo.directory.utils.SplitLargeFilesInDirectory;
 import org.overbaard.ci.multi.repo.generator.GitHubActionGenerator;
 import org.overbaard.ci.multi.repo.log.copy.CopyLogArtifacts;
@@ -27,6 +30,8 @@ public class Main {
         map.put(OverlayBackedUpMavenArtifacts.Command.NAME, new OverlayBackedUpMavenArtifacts.Command());
         map.put(SplitLargeFilesInDirectory.SplitCommand.NAME, new SplitLargeFilesInDirectory.SplitCommand());
         map.put(SplitLargeFilesInDirectory.MergeCommand.NAME, new SplitLargeFilesInDirectory.MergeCommand());
+        map.put(GrabProjectVersion.Command.NAME, new GrabProjectVersion.Command());
+        map.put(PipelineCommand.NAME, new PipelineCommand());
         COMMANDS = Collections.unmodifiableMap(map);
     }
 
@@ -60,4 +65,46 @@ public class Main {
         String headline = usage.getMainUsageHeadline(url);
         System.out.print(usage.usage(headline));
     }
+
+    /**
+     * Runs several commands one after the other in the same JVM, so that the JVM startup and the loading of the
+     * classes they share is only paid for once. The commands and their arguments are separated by
+     * {@value #SEPARATOR}. If a command fails, the ones after it are not run.
+     *
+     * @author <a href="mailto:kabir.khan@jboss.com">Kabir Khan</a>
+     */
+    public static class PipelineCommand implements ToolCommand {
+        public static final String NAME = "pipeline";
+        public static final String SEPARATOR = "--then";
+
+        @Override
+        public String getDescription() {
+            return "Runs several commands, separated by " + SEPARATOR + ", in one JVM";
+        }
+
+        @Override
+        public void invoke(String[] args) throws Exception {
+            // Check all the commands before running any of them
+            List<String[]> invocations = new ArrayList<>();
+            int start = 0;
+            for (int i = 0; i <= args.length; i++) {
+                if (i == args.length || args[i].equals(SEPARATOR)) {
+                    if (i == start) {
+                        throw new IllegalStateException("Empty command in pipeline: " + Arrays.asList(args));
+                    }
+                    String cmd = args[start];
+                    if (!COMMANDS.containsKey(cmd) || cmd.equals(NAME)) {
+                        throw new IllegalStateException("Unknown command in pipeline: " + cmd);
+                    }
+                    invocations.add(Arrays.copyOfRange(args, start, i));
+                    start = i + 1;
+                }
+            }
+
+            for (String[] invocation : invocations) {
+                System.out.println("Running pipeline command: " + String.join(" ", invocation));
+                COMMANDS.get(invocation[0]).invoke(Arrays.copyOfRange(invocation, 1, invocation.length));
+            }
+        }
+    }
 }
@@ -0,0 +1,61 @@
+package org.overbaard.ci.multi.repo.config;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Which of the files under a module's directory in the maven repository get backed up for later jobs.
+ * Empty include lists mean that everything is included.
+ *
+ * @author <a href="mailto:kabir.khan@jboss.com">Kabir Khan</a>
+ */
+public class BackupFilterConfig {
+    public static final BackupFilterConfig NONE = new BackupFilterConfig(
+            Collections.emptyList(), Collections.emptyList(), Collections.emptyList(), Collections.emptyList());
+
+    private final List<String> includeClassifiers;
+    private final List<String> excludeClassifiers;
+    private final List<String> includeExtensions;
+    private final List<String> excludeExtensions;
+
+    BackupFilterConfig(List<String> includeClassifiers, List<String> excludeClassifiers,
+                       List<String> includeExtensions, List<String> excludeExtensions) {
+        this.includeClassifiers = includeClassifiers;
+        this.excludeClassifiers = excludeClassifiers;
+        this.includeExtensions = includeExtensions;
+        this.excludeExtensions = excludeExtensions;
+    }
+
+    public List<String> getIncludeClassifiers() {
+        return includeClassifiers;
+    }
+
+    public List<String> getExcludeClassifiers() {
+        return excludeClassifiers;
+    }
+
+    public List<String> getIncludeExtensions() {
+        return includeExtensions;
+    }
+
+    public List<String> getExcludeExtensions() {
+        return excludeExtensions;
+    }
+
+    /**
+     * Returns a filter where the lists set in the override replace the ones from this filter.
+     *
+     * @param override the override. May be {@code null}
+     * @return the merged filter
+     */
+    public BackupFilterConfig override(BackupFilterConfig override) {
+        if (override == null) {
+            return this;
+        }
+        return new BackupFilterConfig(
+                override.includeClassifiers.size() > 0 ? override.includeClassifiers : includeClassifiers,
+                override.excludeClassifiers.size() > 0 ? override.excludeClassifiers : excludeClassifiers,
+                override.includeExtensions.size() > 0 ? override.includeExtensions : includeExtensions,
+                override.excludeExtensions.size() > 0 ? override.excludeExtensions : excludeExtensions);
+    }
+}
@@ -74,6 +74,48 @@ public class BaseParser {
         return runsOn;
     }
 
+    protected BackupFilterConfig parseBackupFilter(Object input) {
+        if (input == null) {
+            return null;
+        }
+        if (!(input instanceof Map)) {
+            throw new IllegalStateException("'backup-filter' must be an object");
+        }
+        Map<String, Object> map = (Map<String, Object>) input;
+        List<String> includeClassifiers = parseStringList("include-classifiers", map.remove("include-classifiers"));
+        List<String> excludeClassifiers = parseStringList("exclude-classifiers", map.remove("exclude-classifiers"));
+        List<String> includeExtensions = parseStringList("include-extensions", map.remove("include-extensions"));
+        List<String> excludeExtensions = parseStringList("exclude-extensions", map.remove("exclude-extensions"));
+        if (map.size() > 0) {
+            throw new IllegalStateException("Unknown 'backup-filter' entries: " + map.keySet());
+        }
+        return new BackupFilterConfig(includeClassifiers, excludeClassifiers, includeExtensions, excludeExtensions);
+    }
+
+    /**
+     * Parses a list of strings which will be passed on as a comma separated command argument.
+     */
+    protected List<String> parseStringList(String name, Object input) {
+        if (input == null) {
+            return Collections.emptyList();
+        }
+        if (!(input instanceof List)) {
+            throw new IllegalStateException("'" + name + "' must be a list of strings");
+        }
+        List<String> list = new ArrayList<>();
+        for (Object entry : (List<Object>) input) {
+            if (!(entry instanceof String)) {
+                throw new IllegalStateException("'" + name + "' must be a list of strings");
+            }
+            String value = ((String) entry).trim();
+            if (value.isEmpty() || value.contains(",")) {
+                throw new IllegalStateException("'" + name + "' entries must be non-empty and not contain commas: '" + entry + "'");
+            }
+            list.add(value);
+        }
+        return Collections.unmodifiableList(list);
+    }
+
     protected Map<String, Object> preParseEndJob(Object input) {
         if (!(this instanceof RepoConfigParser) && !(this instanceof ComponentJobsConfigParser)) {
             throw new IllegalStateException("Cannot parse end job from " + this.getClass());
@@ -2,6 +2,8 @@ package org.overbaard.ci.multi.repo.config.component;
 
 import java.util.List;
 
+import org.overbaard.ci.multi.repo.config.BackupFilterConfig;
+
 /**
  * @author <a href="mailto:kabir.khan@jboss.com">Kabir Khan</a>
  */
@@ -10,12 +12,15 @@ public class ComponentJobsConfig {
     private final String buildJob;
     private final List<ComponentJobConfig> jobs;
     private final ComponentEndJobConfig endJob;
+    private final BackupFilterConfig backupFilter;
 
-    ComponentJobsConfig(String componentName, String buildJob, List<ComponentJobConfig> jobs, ComponentEndJobConfig endJob) {
+    ComponentJobsConfig(String componentName, String buildJob, List<ComponentJobConfig> jobs, ComponentEndJobConfig endJob,
+                        BackupFilterConfig backupFilter) {
         this.componentName = componentName;
         this.buildJob = buildJob;
         this.jobs = jobs;
         this.endJob = endJob;
+        this.backupFilter = backupFilter;
     }
 
     public String getComponentName() {
@@ -33,4 +38,14 @@ public class ComponentJobsConfig {
     public ComponentEndJobConfig getEndJob() {
         return endJob;
     }
+
+    /**
+     * Gets the backup filter entries set in the component job file. Lists which are set here replace
+     * the ones from the repository config.
+     *
+     * @return the backup filter, or {@code null} if none was set
+     */
+    public BackupFilterConfig getBackupFilter() {
+        return backupFilter;
+    }
 }
@@ -12,6 +12,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import org.overbaard.ci.multi.repo.config.BackupFilterConfig;
 import org.overbaard.ci.multi.repo.config.BaseParser;
 import org.yaml.snakeyaml.Yaml;
 
@@ -49,6 +50,7 @@ public class ComponentJobsConfigParser extends BaseParser {
         Object buildJobInput = input.remove("build-job");
         Object javaVersionInput = input.remove("java-version");
         Object endJobInput = input.remove("end-job");
+        Object backupFilterInput = input.remove("backup-filter");
         List<String> runsOn = parseRunsOn(input.remove("runs-on"));
         if (input.size() > 0) {
             throw new IllegalStateException("Unknown entries: " + input.keySet());
@@ -80,8 +82,9 @@ public class ComponentJobsConfigParser extends BaseParser {
 
         Map<String, Object> endJob = preParseEndJob(endJobInput);
         ComponentEndJobConfig endJobConfig = parseEndJob(endJob, jobs, javaVersion, mainEnv, runsOn);
+        BackupFilterConfig backupFilter = parseBackupFilter(backupFilterInput);
 
-        return new ComponentJobsConfig(componentName, createJobName(buildJob), new ArrayList<>(jobs.values()), endJobConfig);
+        return new ComponentJobsConfig(componentName, createJobName(buildJob), new ArrayList<>(jobs.values()), endJobConfig, backupFilter);
     }
 
     private Map<String, ComponentJobConfig> parseJobs(String buildJob, String javaVersion, Map<String, String> mainEnv, List<String> runsOn, Object input) {
@@ -0,0 +1,85 @@
+package org.overbaard.ci.multi.repo.config.repo;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Which files the copy-logs step of a failed job picks up, on top of the ones it picks up by default.
+ * The entries are globs. Ones without a slash are matched against the file or directory name, while the others
+ * are matched against the path relative to the job's checkout. The sizes limit how large the job's log artifact
+ * can get.
+ *
+ * @author <a href="mailto:kabir.khan@jboss.com">Kabir Khan</a>
+ */
+public class CopyLogsConfig {
+    public static final CopyLogsConfig DEFAULT = new CopyLogsConfig(
+            Collections.emptyList(), Collections.emptyList(), Collections.emptyList(), null, null, null, null);
+
+    private final List<String> include;
+    private final List<String> exclude;
+    private final List<String> prune;
+    private final Integer maxSizeMb;
+    private final Integer maxFileSizeMb;
+    private final Integer keepHeadMb;
+    private final Integer keepTailMb;
+
+    CopyLogsConfig(List<String> include, List<String> exclude, List<String> prune, Integer maxSizeMb,
+                   Integer maxFileSizeMb, Integer keepHeadMb, Integer keepTailMb) {
+        this.include = include;
+        this.exclude = exclude;
+        this.prune = prune;
+        this.maxSizeMb = maxSizeMb;
+        this.maxFileSizeMb = maxFileSizeMb;
+        this.keepHeadMb = keepHeadMb;
+        this.keepTailMb = keepTailMb;
+    }
+
+    /**
+     * Gets the globs for extra files to copy.
+     */
+    public List<String> getInclude() {
+        return include;
+    }
+
+    /**
+     * Gets the globs for files not to copy, even if they are included.
+     */
+    public List<String> getExclude() {
+        return exclude;
+    }
+
+    /**
+     * Gets the globs for extra directories not to look in.
+     */
+    public List<String> getPrune() {
+        return prune;
+    }
+
+    /**
+     * Gets the maximum size of all the copied files together, or {@code null} if there is no limit.
+     */
+    public Integer getMaxSizeMb() {
+        return maxSizeMb;
+    }
+
+    /**
+     * Gets the maximum size of a copied file, or {@code null} if there is no limit. Larger files have the middle cut out.
+     */
+    public Integer getMaxFileSizeMb() {
+        return maxFileSizeMb;
+    }
+
+    /**
+     * Gets how much of the start of large files to keep, or {@code null} if not set.
+     */
+    public Integer getKeepHeadMb() {
+        return keepHeadMb;
+    }
+
+    /**
+     * Gets how much of the end of large files to keep, or {@code null} if not set.
+     */
+    public Integer getKeepTailMb() {
+        return keepTailMb;
+    }
+}
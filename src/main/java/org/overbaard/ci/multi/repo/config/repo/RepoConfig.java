@@ -5,6 +5,8 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
+import org.overbaard.ci.multi.repo.config.BackupFilterConfig;
+
 /**
  * @author <a href="mailto:kabir.khan@jboss.com">Kabir Khan</a>
  */
@@ -12,6 +14,10 @@ public class RepoConfig {
 
     public static final List<String> DEFAULT_RUNS_ON = Collections.singletonList("ubuntu-latest");
     public static final boolean DEFAULT_COMMENTS_REPORTING = true;
+    public static final boolean DEFAULT_LAZY_OVERLAY = false;
+    public static final boolean DEFAULT_OBJECT_STORE = false;
+    public static final boolean DEFAULT_CONTENT_DEFINED_CHUNKING = false;
+    public static final boolean DEFAULT_CLASS_DATA_SHARING = false;
 
     private final Map<String, String> env;
     private final String javaVersion;
@@ -20,10 +26,19 @@ public class RepoConfig {
     private final String successLabel;
     private final String failureLabel;
     private final Map<String, Object> endJob;
+    private final BackupFilterConfig backupFilter;
+    private final boolean lazyOverlay;
+    private final boolean objectStore;
+    private final Integer splitSizeMb;
+    private final boolean contentDefinedChunking;
+    private final CopyLogsConfig copyLogs;
+    private final boolean classDataSharing;
 
     RepoConfig(Map<String, String> env, String javaVersion, List<String> runsOn,
                boolean commentsReporting,
-               String successLabel, String failureLabel, Map<String, Object> endJob) {
+               String successLabel, String failureLabel, Map<String, Object> endJob,
+               BackupFilterConfig backupFilter, boolean lazyOverlay, boolean objectStore, Integer splitSizeMb,
+               boolean contentDefinedChunking, CopyLogsConfig copyLogs, boolean classDataSharing) {
         this.env = env;
         this.javaVersion = javaVersion;
         this.runsOn = runsOn;
@@ -31,12 +46,19 @@ public class RepoConfig {
         this.successLabel = successLabel;
         this.failureLabel = failureLabel;
         this.endJob = endJob;
+        this.backupFilter = backupFilter;
+        this.lazyOverlay = lazyOverlay;
+        this.objectStore = objectStore;
+        this.splitSizeMb = splitSizeMb;
+        this.contentDefinedChunking = contentDefinedChunking;
+        this.copyLogs = copyLogs;
+        this.classDataSharing = classDataSharing;
 
 
     }
 
     RepoConfig() {
-        this(Collections.emptyMap(), null, DEFAULT_RUNS_ON, DEFAULT_COMMENTS_REPORTING, null, null, null);
+        this(Collections.emptyMap(), null, DEFAULT_RUNS_ON, DEFAULT_COMMENTS_REPORTING, null, null, null, BackupFilterConfig.NONE, DEFAULT_LAZY_OVERLAY, DEFAULT_OBJECT_STORE, null, DEFAULT_CONTENT_DEFINED_CHUNKING, CopyLogsConfig.DEFAULT, DEFAULT_CLASS_DATA_SHARING);
     }
 
     public Map<String, String> getEnv() {
@@ -66,4 +88,49 @@ public class RepoConfig {
     public List<String> getRunsOn() {
         return runsOn;
     }
+
+    public BackupFilterConfig getBackupFilter() {
+        return backupFilter;
+    }
+
+    public boolean isLazyOverlay() {
+        return lazyOverlay;
+    }
+
+    /**
+     * Whether the maven artifact backups should go into the content addressed object store, so that files
+     * which are the same in several backups are only pushed once.
+     */
+    public boolean isObjectStore() {
+        return objectStore;
+    }
+
+    /**
+     * Gets the size of the parts large files get split into before pushing.
+     *
+     * @return the size in MB, or {@code null} if the tool's default should be used
+     */
+    public Integer getSplitSizeMb() {
+        return splitSizeMb;
+    }
+
+    /**
+     * Whether large files should be split where their contents dictate rather than at fixed offsets, so that
+     * the unchanged parts of a file are identical between runs.
+     */
+    public boolean isContentDefinedChunking() {
+        return contentDefinedChunking;
+    }
+
+    /**
+     * Whether the tool commands in a job should share an archive of the classes loaded by the first one,
+     * so that the later ones start faster.
+     */
+    public boolean isClassDataSharing() {
+        return classDataSharing;
+    }
+
+    public CopyLogsConfig getCopyLogs() {
+        return copyLogs;
+    }
 }
@@ -8,6 +8,7 @@ import java.nio.file.Path;
 import java.util.List;
 import java.util.Map;
 
+import org.overbaard.ci.multi.repo.config.BackupFilterConfig;
 import org.overbaard.ci.multi.repo.config.BaseParser;
 import org.yaml.snakeyaml.Yaml;
 
@@ -44,6 +45,13 @@ public class RepoConfigParser extends BaseParser {
         Object javaVersionInput = input.remove("java-version");
         Object issueReportingInput = input.remove("issue-reporting");
         Object endJobInput = input.remove("end-job");
+        Object backupFilterInput = input.remove("backup-filter");
+        Object lazyOverlayInput = input.remove("lazy-overlay");
+        Object objectStoreInput = input.remove("object-store");
+        Object splitSizeMbInput = input.remove("split-size-mb");
+        Object contentDefinedChunkingInput = input.remove("content-defined-chunking");
+        Object copyLogsInput = input.remove("copy-logs");
+        Object classDataSharingInput = input.remove("class-data-sharing");
         List<String> runsOn = parseRunsOn(input.remove("runs-on"));
         if (runsOn == null) {
             runsOn = RepoConfig.DEFAULT_RUNS_ON;
@@ -55,6 +63,46 @@ public class RepoConfigParser extends BaseParser {
 
         Map<String, String> env = parseEnv(envInput);
         String javaVersion = parseJavaVersion(javaVersionInput);
+        BackupFilterConfig backupFilter = BackupFilterConfig.NONE.override(parseBackupFilter(backupFilterInput));
+        boolean lazyOverlay = RepoConfig.DEFAULT_LAZY_OVERLAY;
+        if (lazyOverlayInput != null) {
+            if (!(lazyOverlayInput instanceof Boolean)) {
+                throw new IllegalStateException("'lazy-overlay' must be either true or false (without quotes)");
+            }
+            lazyOverlay = (Boolean) lazyOverlayInput;
+        }
+        boolean objectStore = RepoConfig.DEFAULT_OBJECT_STORE;
+        if (objectStoreInput != null) {
+            if (!(objectStoreInput instanceof Boolean)) {
+                throw new IllegalStateException("'object-store' must be either true or false (without quotes)");
+            }
+            objectStore = (Boolean) objectStoreInput;
+        }
+        boolean contentDefinedChunking = RepoConfig.DEFAULT_CONTENT_DEFINED_CHUNKING;
+        if (contentDefinedChunkingInput != null) {
+            if (!(contentDefinedChunkingInput instanceof Boolean)) {
+                throw new IllegalStateException("'content-defined-chunking' must be either true or false (without quotes)");
+            }
+            contentDefinedChunking = (Boolean) contentDefinedChunkingInput;
+        }
+        boolean classDataSharing = RepoConfig.DEFAULT_CLASS_DATA_SHARING;
+        if (classDataSharingInput != null) {
+            if (!(classDataSharingInput instanceof Boolean)) {
+                throw new IllegalStateException("'class-data-sharing' must be either true or false (without quotes)");
+            }
+            classDataSharing = (Boolean) classDataSharingInput;
+        }
+        CopyLogsConfig copyLogs = parseCopyLogs(copyLogsInput);
+        Integer splitSizeMb = null;
+        if (splitSizeMbInput != null) {
+            if (!(splitSizeMbInput instanceof Integer)) {
+                throw new IllegalStateException("'split-size-mb' must be a number");
+            }
+            splitSizeMb = (Integer) splitSizeMbInput;
+            if (splitSizeMb < 1 || splitSizeMb > 99) {
+                throw new IllegalStateException("'split-size-mb' must be between 1 and 99, since GitHub does not allow files of 100MB or more");
+            }
+        }
 
         boolean commentsReporting = RepoConfig.DEFAULT_COMMENTS_REPORTING;
         String successLabel = null;
@@ -122,6 +170,40 @@ public class RepoConfigParser extends BaseParser {
             }
         }
 
-        return new RepoConfig(env, javaVersion, runsOn, commentsReporting, successLabel, failureLabel, endJob);
+        return new RepoConfig(env, javaVersion, runsOn, commentsReporting, successLabel, failureLabel, endJob, backupFilter, lazyOverlay, objectStore, splitSizeMb, contentDefinedChunking, copyLogs, classDataSharing);
+    }
+
+    private CopyLogsConfig parseCopyLogs(Object input) {
+        if (input == null) {
+            return CopyLogsConfig.DEFAULT;
+        }
+        if (!(input instanceof Map)) {
+            throw new IllegalStateException("'copy-logs' must be an object");
+        }
+        Map<String, Object> map = (Map<String, Object>) input;
+        List<String> include = parseStringList("include", map.remove("include"));
+        List<String> exclude = parseStringList("exclude", map.remove("exclude"));
+        List<String> prune = parseStringList("prune", map.remove("prune"));
+        Integer maxSizeMb = parseSizeMb("max-size-mb", map.remove("max-size-mb"));
+        Integer maxFileSizeMb = parseSizeMb("max-file-size-mb", map.remove("max-file-size-mb"));
+        Integer keepHeadMb = parseSizeMb("keep-head-mb", map.remove("keep-head-mb"));
+        Integer keepTailMb = parseSizeMb("keep-tail-mb", map.remove("keep-tail-mb"));
+        if (map.size() > 0) {
+            throw new IllegalStateException("Unknown 'copy-logs' entries: " + map.keySet());
+        }
+        if (maxFileSizeMb != null && (keepHeadMb != null || keepTailMb != null)) {
+            throw new IllegalStateException("'max-file-size-mb' cannot be used together with 'keep-head-mb' or 'keep-tail-mb'");
+        }
+        return new CopyLogsConfig(include, exclude, prune, maxSizeMb, maxFileSizeMb, keepHeadMb, keepTailMb);
+    }
+
+    private Integer parseSizeMb(String name, Object input) {
+        if (input == null) {
+            return null;
+        }
+        if (!(input instanceof Integer) || (Integer) input < 1) {
+            throw new IllegalStateException("'" + name + "' must be a positive number");
+        }
+        return (Integer) input;
     }
 }
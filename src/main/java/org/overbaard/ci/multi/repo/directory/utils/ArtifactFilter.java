@@ -0,0 +1,106 @@
+package org.overbaard.ci.multi.repo.directory.utils;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Decides which of the files in a module's directory in the maven repository get backed up, based on their
+ * classifier and extension. For an artifact file called {@code <artifactId>-<version>[-<classifier>].<extension>}
+ * the extension is everything after the first dot following the version, e.g. {@code tar.gz}. Checksums and
+ * signatures (e.g. {@code x.jar.sha1}) go with the file they belong to.
+ * <p/>
+ * Other files in the directory, such as {@code maven-metadata-local.xml}, have no classifier, and their extension
+ * is everything after the first dot in the file name.
+ * <p/>
+ * Files with a classifier are only backed up if it is in the included classifiers (if any were given), and not
+ * in the excluded ones. Files without a classifier are not affected by the classifier lists.
+ * Files are only backed up if their extension is in the included extensions (if any were given), and not
+ * in the excluded ones.
+ *
+ * @author <a href="mailto:kabir.khan@jboss.com">Kabir Khan</a>
+ */
+class ArtifactFilter {
+    static final ArtifactFilter ALL =
+            new ArtifactFilter(Collections.emptyList(), Collections.emptyList(), Collections.emptyList(), Collections.emptyList());
+
+    private static final List<String> CHECKSUM_EXTENSIONS = Arrays.asList(".md5", ".sha1", ".sha256", ".sha512", ".asc");
+
+    private final Set<String> includeClassifiers;
+    private final Set<String> excludeClassifiers;
+    private final Set<String> includeExtensions;
+    private final Set<String> excludeExtensions;
+
+    ArtifactFilter(List<String> includeClassifiers, List<String> excludeClassifiers,
+                   List<String> includeExtensions, List<String> excludeExtensions) {
+        this.includeClassifiers = new HashSet<>(includeClassifiers);
+        this.excludeClassifiers = new HashSet<>(excludeClassifiers);
+        this.includeExtensions = new HashSet<>(includeExtensions);
+        this.excludeExtensions = new HashSet<>(excludeExtensions);
+    }
+
+    boolean isFiltering() {
+        return includeClassifiers.size() > 0 || excludeClassifiers.size() > 0 ||
+                includeExtensions.size() > 0 || excludeExtensions.size() > 0;
+    }
+
+    /**
+     * Gets a predicate for the files in the maven repository directory of the given project.
+     */
+    Predicate<Path> forArtifact(ProjectArtifactInfo info) {
+        if (!isFiltering()) {
+            return file -> true;
+        }
+        final String prefix = info.getArtifactId() + "-" + info.getVersion();
+        return file -> {
+            boolean backup = accept(prefix, file.getFileName().toString());
+            if (!backup) {
+                System.out.println("Filtered out " + file);
+            }
+            return backup;
+        };
+    }
+
+    private boolean accept(String prefix, String fileName) {
+        String name = stripChecksumExtension(fileName);
+        String classifier = null;
+        String extension;
+        if (name.startsWith(prefix + "-")) {
+            String rest = name.substring(prefix.length() + 1);
+            int index = rest.indexOf('.');
+            classifier = index < 0 ? rest : rest.substring(0, index);
+            extension = index < 0 ? "" : rest.substring(index + 1);
+        } else if (name.startsWith(prefix + ".")) {
+            extension = name.substring(prefix.length() + 1);
+        } else {
+            int index = name.indexOf('.');
+            extension = index < 0 ? "" : name.substring(index + 1);
+        }
+
+        if (classifier != null) {
+            if (includeClassifiers.size() > 0 && !includeClassifiers.contains(classifier)) {
+                return false;
+            }
+            if (excludeClassifiers.contains(classifier)) {
+                return false;
+            }
+        }
+        if (includeExtensions.size() > 0 && !includeExtensions.contains(extension)) {
+            return false;
+        }
+        return !excludeExtensions.contains(extension);
+    }
+
+    private static String stripChecksumExtension(String fileName) {
+        for (String checksum : CHECKSUM_EXTENSIONS) {
+            if (fileName.endsWith(checksum)) {
+                return fileName.substring(0, fileName.length() - checksum.length());
+            }
+        }
+        return fileName;
+    }
+}
@@ -1,11 +1,7 @@
 package org.overbaard.ci.multi.repo.directory.utils;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.Reader;
-import java.nio.charset.Charset;
-import java.nio.charset.StandardCharsets;
+import java.io.UncheckedIOException;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -13,14 +9,16 @@ import java.nio.file.Paths;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-
-import javax.xml.stream.XMLInputFactory;
-import javax.xml.stream.XMLStreamException;
-import javax.xml.stream.XMLStreamReader;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.Stream;
 
 import org.apache.maven.model.Model;
-import org.apache.maven.model.io.xpp3.MavenXpp3Reader;
 import org.overbaard.ci.multi.repo.ToolCommand;
 
 /**
@@ -29,84 +27,149 @@ import org.overbaard.ci.multi.repo.ToolCommand;
  * @author <a href="mailto:kabir.khan@jboss.com">Kabir Khan</a>
  */
 public class BackupMavenArtifacts {
-    private static final XMLInputFactory XML_INPUT_FACTORY = XMLInputFactory.newInstance();
+    public static final String ARG_THREADS = "--threads";
+    public static final String ARG_OBJECT_STORE = "--object-store";
+    public static final String ARG_INCREMENTAL = "--incremental";
+    public static final String ARG_PACKED = "--packed";
+    public static final String ARG_INCLUDE_CLASSIFIERS = "--include-classifiers";
+    public static final String ARG_EXCLUDE_CLASSIFIERS = "--exclude-classifiers";
+    public static final String ARG_INCLUDE_EXTENSIONS = "--include-extensions";
+    public static final String ARG_EXCLUDE_EXTENSIONS = "--exclude-extensions";
+    public static final String ARG_SPLIT_SIZE_MB = SplitLargeFilesInDirectory.ARG_SPLIT_SIZE_MB;
+    public static final String ARG_CONTENT_DEFINED_CHUNKING = SplitLargeFilesInDirectory.ARG_CONTENT_DEFINED_CHUNKING;
 
     private final List<ProjectArtifactInfo> artifactInfos = new ArrayList<>();
 
     private final Path rootPom;
     private final Path mavenRepo;
     private final Path backupLocation;
+    private final int threads;
+    private final ContentAddressedStore objectStore;
+    private final boolean incremental;
+    private final boolean packed;
+    private final ArtifactFilter filter;
+    private final SplitFileUtil splitFileUtil;
 
-    private BackupMavenArtifacts(Path rootPom, Path mavenRepo, Path backupLocation) {
+    private BackupMavenArtifacts(Path rootPom, Path mavenRepo, Path backupLocation, int threads,
+                                 ContentAddressedStore objectStore, boolean incremental, boolean packed,
+                                 ArtifactFilter filter, SplitFileUtil splitFileUtil) {
         this.rootPom = rootPom;
         this.mavenRepo = mavenRepo;
         this.backupLocation = backupLocation;
+        this.threads = threads;
+        this.objectStore = objectStore;
+        this.incremental = incremental;
+        this.packed = packed;
+        this.filter = filter;
+        this.splitFileUtil = splitFileUtil;
     }
 
     public static void backup(String[] args) throws Exception {
-        if (args.length != 3) {
-            throw new IllegalStateException("Need the following args: <root pom path> <maven repo root> <backupLocation>");
+        int threads = ParallelFileCopier.defaultThreads();
+        ContentAddressedStore objectStore = null;
+        boolean incremental = false;
+        boolean packed = false;
+        List<String> includeClassifiers = Collections.emptyList();
+        List<String> excludeClassifiers = Collections.emptyList();
+        List<String> includeExtensions = Collections.emptyList();
+        List<String> excludeExtensions = Collections.emptyList();
+        int splitSizeMb = SplitFileUtil.DEFAULT_MAX_SIZE_MB;
+        boolean contentDefinedChunking = false;
+        List<String> paths = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith(ARG_THREADS + "=")) {
+                String val = arg.substring(ARG_THREADS.length() + 1);
+                try {
+                    threads = Integer.parseInt(val);
+                } catch (NumberFormatException e) {
+                    throw new IllegalStateException(ARG_THREADS + " '" + val + "' is not an integer");
+                }
+            } else if (arg.startsWith(ARG_OBJECT_STORE + "=")) {
+                objectStore = new ContentAddressedStore(Paths.get(arg.substring(ARG_OBJECT_STORE.length() + 1)));
+            } else if (arg.equals(ARG_INCREMENTAL)) {
+                incremental = true;
+            } else if (arg.equals(ARG_PACKED)) {
+                packed = true;
+            } else if (arg.startsWith(ARG_INCLUDE_CLASSIFIERS + "=")) {
+                includeClassifiers = parseList(ARG_INCLUDE_CLASSIFIERS, arg);
+            } else if (arg.startsWith(ARG_EXCLUDE_CLASSIFIERS + "=")) {
+                excludeClassifiers = parseList(ARG_EXCLUDE_CLASSIFIERS, arg);
+            } else if (arg.startsWith(ARG_INCLUDE_EXTENSIONS + "=")) {
+                includeExtensions = parseList(ARG_INCLUDE_EXTENSIONS, arg);
+            } else if (arg.startsWith(ARG_EXCLUDE_EXTENSIONS + "=")) {
+                excludeExtensions = parseList(ARG_EXCLUDE_EXTENSIONS, arg);
+            } else if (arg.startsWith(ARG_SPLIT_SIZE_MB + "=")) {
+                splitSizeMb = SplitFileUtil.parseSplitSizeArg(ARG_SPLIT_SIZE_MB, arg.substring(ARG_SPLIT_SIZE_MB.length() + 1));
+            } else if (arg.equals(ARG_CONTENT_DEFINED_CHUNKING)) {
+                contentDefinedChunking = true;
+            } else {
+                paths.add(arg);
+            }
+        }
+        if (paths.size() != 3) {
+            throw new IllegalStateException("Need the following args: [" + ARG_THREADS + "=<n>] " +
+                    "[" + ARG_OBJECT_STORE + "=<dir>] [" + ARG_INCREMENTAL + "] [" + ARG_PACKED + "] " +
+                    "[" + ARG_INCLUDE_CLASSIFIERS + "=<c1,c2>] [" + ARG_EXCLUDE_CLASSIFIERS + "=<c1,c2>] " +
+                    "[" + ARG_INCLUDE_EXTENSIONS + "=<e1,e2>] [" + ARG_EXCLUDE_EXTENSIONS + "=<e1,e2>] " +
+                    "[" + ARG_SPLIT_SIZE_MB + "=<n>] [" + ARG_CONTENT_DEFINED_CHUNKING + "] " +
+                    "<root pom path> <maven repo root> <backupLocation>");
+        }
+        if (packed && (objectStore != null || incremental)) {
+            throw new IllegalStateException(ARG_PACKED + " cannot be used with " + ARG_OBJECT_STORE + " or " + ARG_INCREMENTAL);
         }
 
-        Path rootPom = Paths.get(args[0]).toAbsolutePath();
+        Path rootPom = Paths.get(paths.get(0)).toAbsolutePath();
         if (!Files.exists(rootPom)) {
             throw new IllegalStateException("Root pom path does not exist: " + rootPom);
         }
-        Path mavenRepo = Paths.get(args[1]).toAbsolutePath();
+        Path mavenRepo = Paths.get(paths.get(1)).toAbsolutePath();
         if (!Files.exists(mavenRepo)) {
             throw new IllegalStateException("Maven repo does not exist: " + rootPom);
         }
-        Path backupLocation = Paths.get(args[2]).toAbsolutePath();
+        Path backupLocation = Paths.get(paths.get(2)).toAbsolutePath();
 
-        BackupMavenArtifacts grabber = new BackupMavenArtifacts(rootPom, mavenRepo, backupLocation);
+        ArtifactFilter filter = new ArtifactFilter(includeClassifiers, excludeClassifiers, includeExtensions, excludeExtensions);
+        SplitFileUtil splitFileUtil = new SplitFileUtil(splitSizeMb, contentDefinedChunking);
+
+        BackupMavenArtifacts grabber = new BackupMavenArtifacts(rootPom, mavenRepo, backupLocation, threads,
+                objectStore, incremental, packed, filter, splitFileUtil);
         grabber.recordModules(rootPom);
         grabber.copyArtifacts();
     }
 
-    private void recordModules(Path path) throws Exception {
-        Model model = readModel(path);
-        artifactInfos.add(ProjectArtifactInfo.create(model));
-
-        if (model.getModules().size() > 0) {
-            Path dir = path.getParent();
-            for (String module : model.getModules()) {
-                Path childPom = dir.resolve(module).resolve("pom.xml");
-                recordModules(childPom);
+    private static List<String> parseList(String name, String arg) {
+        List<String> list = new ArrayList<>();
+        for (String value : arg.substring(name.length() + 1).split(",")) {
+            if (value.trim().length() > 0) {
+                list.add(value.trim());
             }
         }
+        return list;
     }
 
-    private Model readModel(Path pomXml) throws Exception {
-        try (BufferedReader reader = Files.newBufferedReader(pomXml, getEncoding(pomXml))) {
-            final MavenXpp3Reader xpp3Reader = new MavenXpp3Reader();
-            final Model model = xpp3Reader.read(reader);
-            model.setPomFile(pomXml.toFile());
-
-            return model;
-        } catch (org.codehaus.plexus.util.xml.pull.XmlPullParserException ex) {
-            throw new IOException("Failed to parse artifact POM model", ex);
-        }
+    private void recordModules(Path path) throws Exception {
+        artifactInfos.addAll(scanModules(path, threads));
     }
 
-    private Charset getEncoding(Path pomXml) throws IOException {
-        Charset charset = StandardCharsets.UTF_8;
-        try (Reader reader = new BufferedReader(new FileReader(pomXml.toFile()))) {
-            XMLStreamReader xmlReader = XML_INPUT_FACTORY.createXMLStreamReader(reader);
-            try {
-                String encoding = xmlReader.getCharacterEncodingScheme();
-                if (encoding != null) {
-                    charset = Charset.forName(encoding);
-                }
-            } finally {
-                xmlReader.close();
-            }
-        } catch (XMLStreamException ex) {
-            throw new IOException("Failed to retrieve encoding for " + pomXml, ex);
+    /**
+     * Reads the pom and all its modules, in the order of a depth first walk of the module tree.
+     */
+    static List<ProjectArtifactInfo> scanModules(Path rootPom, int threads) throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            return pool.invoke(new ModuleScanner(rootPom));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            pool.shutdown();
         }
-        return charset;
     }
 
     private void copyArtifacts() throws Exception {
+        if (incremental && objectStore == null) {
+            copyChangedArtifacts();
+            return;
+        }
         if (Files.exists(backupLocation)) {
             // Delete the backup directory
             Files.walkFileTree(backupLocation, new SimpleFileVisitor<Path>(){
@@ -125,12 +188,112 @@ public class BackupMavenArtifacts {
         }
         Files.createDirectories(backupLocation);
 
-        for (ProjectArtifactInfo info : artifactInfos) {
-            copyArtifact(info);
+        if (objectStore != null) {
+            storeArtifacts();
+            return;
+        }
+        if (packed) {
+            packArtifacts();
+            return;
+        }
+
+        // Large files get split as they are copied, so they are never written to the backup in full
+        try (ParallelFileCopier copier = new ParallelFileCopier(threads, splitFileUtil)) {
+            for (ProjectArtifactInfo info : artifactInfos) {
+                copyArtifact(copier, info);
+            }
+            copier.awaitCompletion();
         }
     }
 
-    private void copyArtifact(ProjectArtifactInfo info) throws Exception {
+    private void copyChangedArtifacts() throws Exception {
+        Files.createDirectories(backupLocation);
+
+        Set<Path> backedUpFiles = ConcurrentHashMap.newKeySet();
+        try (ParallelFileCopier copier = new ParallelFileCopier(threads, splitFileUtil)) {
+            for (ProjectArtifactInfo info : artifactInfos) {
+                Path sourceDir = mavenRepo.resolve(info.getRelativePath());
+                Path targetDir = backupLocation.resolve(info.getRelativePath());
+                if (!Files.exists(sourceDir)) {
+                    System.out.println("WARN - cannot find module directory, skipping: " + sourceDir);
+                    continue;
+                }
+                Files.createDirectories(targetDir);
+                copier.copyChangedFiles(sourceDir, targetDir, filter.forArtifact(info), backedUpFiles);
+            }
+            copier.awaitCompletion();
+        }
+
+        removeStaleFiles(backedUpFiles);
+    }
+
+    private void removeStaleFiles(Set<Path> backedUpFiles) throws IOException {
+        Files.walkFileTree(backupLocation, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                if (SplitFileUtil.isSplitFilesDirectory(dir)) {
+                    Path file = SplitFileUtil.getFileFromSplitFilesDirectory(dir);
+                    if (!backedUpFiles.contains(file) || Files.exists(file)) {
+                        System.out.println("Removing stale " + dir);
+                        Files.walkFileTree(dir, new DeleteFilesVisitor());
+                    }
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                if (!backedUpFiles.contains(file)) {
+                    System.out.println("Removing stale " + file);
+                    Files.delete(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                if (!dir.equals(backupLocation)) {
+                    try (Stream<Path> stream = Files.list(dir)) {
+                        if (!stream.findAny().isPresent()) {
+                            Files.delete(dir);
+                        }
+                    }
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void packArtifacts() throws Exception {
+        PackedBackup.pack(mavenRepo, artifactInfos, filter, backupLocation);
+        IterateDirectoryVisitor.processDirectory(backupLocation, LargeFileAction.SPLIT, splitFileUtil);
+    }
+
+    private void storeArtifacts() throws Exception {
+        Map<String, String> hashesByPath = new ConcurrentHashMap<>();
+        try (ParallelFileCopier copier = new ParallelFileCopier(threads)) {
+            for (ProjectArtifactInfo info : artifactInfos) {
+                Path sourceDir = mavenRepo.resolve(info.getRelativePath());
+                if (!Files.exists(sourceDir)) {
+                    System.out.println("WARN - cannot find module directory, skipping: " + sourceDir);
+                    continue;
+                }
+                try (Stream<Path> stream = Files.walk(sourceDir)) {
+                    stream.filter(Files::isRegularFile).filter(filter.forArtifact(info)).forEach(file -> copier.submit(() -> {
+                        String relativePath = mavenRepo.relativize(file).toString().replace('\\', '/');
+                        hashesByPath.put(relativePath, objectStore.store(file));
+                        return null;
+                    }));
+                }
+            }
+            copier.awaitCompletion();
+        }
+        objectStore.splitLargeObjects(splitFileUtil);
+        ContentAddressedStore.writeManifest(backupLocation, hashesByPath);
+    }
+
+    private void copyArtifact(ParallelFileCopier copier, ProjectArtifactInfo info) throws Exception {
         Path sourceDir = mavenRepo.resolve(info.getRelativePath());
         Path targetDir = backupLocation.resolve(info.getRelativePath());
 
@@ -140,7 +303,47 @@ public class BackupMavenArtifacts {
         }
 
         Files.createDirectories(targetDir);
-        Files.walkFileTree(sourceDir, new CopyDirectoryVisitor(LargeFileAction.SPLIT, sourceDir, targetDir));
+        copier.copyDirectory(sourceDir, targetDir, filter.forArtifact(info));
+    }
+
+    /**
+     * Reads the pom, and forks a task for each of its modules. The results are joined in module order,
+     * so the resulting list is the same as from a depth first walk of the module tree.
+     */
+    private static class ModuleScanner extends RecursiveTask<List<ProjectArtifactInfo>> {
+        private static final long serialVersionUID = 1L;
+
+        private final Path pomXml;
+
+        ModuleScanner(Path pomXml) {
+            this.pomXml = pomXml;
+        }
+
+        @Override
+        protected List<ProjectArtifactInfo> compute() {
+            Model model;
+            try {
+                model = PomModelReader.readModel(pomXml);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            List<ModuleScanner> children = new ArrayList<>();
+            Path dir = pomXml.getParent();
+            for (String module : model.getModules()) {
+                Path childPom = dir.resolve(module).resolve("pom.xml");
+                ModuleScanner child = new ModuleScanner(childPom);
+                child.fork();
+                children.add(child);
+            }
+
+            List<ProjectArtifactInfo> infos = new ArrayList<>();
+            infos.add(ProjectArtifactInfo.create(model));
+            for (ModuleScanner child : children) {
+                infos.addAll(child.join());
+            }
+            return infos;
+        }
     }
 
     public static class Command implements ToolCommand {
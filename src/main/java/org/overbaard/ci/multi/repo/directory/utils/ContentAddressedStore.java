@@ -0,0 +1,137 @@
+package org.overbaard.ci.multi.repo.directory.utils;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Stores files keyed by the SHA-256 of their contents, so that identical files only get stored (and pushed) once.
+ * Objects live under {@code <store root>/<first two characters of the hash>/<hash>}. Objects larger than what
+ * GitHub allows get split in the same way as other large files.
+ * <p/>
+ * A component's backup is then just a manifest mapping each file's path in the maven repository to the hash
+ * of its contents.
+ *
+ * @author <a href="mailto:kabir.khan@jboss.com">Kabir Khan</a>
+ */
+class ContentAddressedStore {
+    static final String MANIFEST_FILE_NAME = "backup-manifest.txt";
+
+    private final Path root;
+
+    ContentAddressedStore(Path root) {
+        this.root = root.toAbsolutePath();
+    }
+
+    static boolean hasManifest(Path componentBackup) {
+        return Files.exists(componentBackup.resolve(MANIFEST_FILE_NAME));
+    }
+
+    /**
+     * Adds the file to the store if an object with the same contents is not already there.
+     *
+     * @param file the file to add
+     * @return the hash of the file contents
+     */
+    String store(Path file) throws IOException {
+        String hash = Sha256.hash(file);
+        Path object = getObjectPath(hash);
+        if (!contains(object)) {
+            Files.createDirectories(object.getParent());
+            // Copy to a temp file first so that concurrent stores of the same contents don't clash
+            Path tmp = Files.createTempFile(object.getParent(), hash, ".tmp");
+            Files.copy(file, tmp, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(tmp, object, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            System.out.println("Stored " + file + " as " + object);
+        }
+        return hash;
+    }
+
+    /**
+     * Splits any objects which are too large to be pushed to GitHub.
+     */
+    void splitLargeObjects(SplitFileUtil splitFileUtil) throws IOException {
+        IterateDirectoryVisitor.processDirectory(root, LargeFileAction.SPLIT, splitFileUtil);
+    }
+
+    /**
+     * Writes the contents of the object with the given hash to the target file.
+     *
+     * @param linker if not {@code null}, the target gets hard linked to the object by the linker rather than copied.
+     *               Split objects are always merged into the target.
+     */
+    void materialize(String hash, Path target, FileLinker linker) throws IOException {
+        Path object = getObjectPath(hash);
+        if (Files.exists(object)) {
+            if (linker != null) {
+                linker.linkOrCopy(object, target);
+            } else {
+                Files.copy(object, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            return;
+        }
+        Path splitDir = SplitFileUtil.getSplitFilesDirectory(object);
+        if (Files.exists(splitDir)) {
+            Files.deleteIfExists(target);
+            new SplitFileUtil().mergeFilesTo(splitDir, target);
+            return;
+        }
+        throw new IllegalStateException("No object with hash " + hash + " found in " + root);
+    }
+
+    private boolean contains(Path object) {
+        return Files.exists(object) || Files.exists(SplitFileUtil.getSplitFilesDirectory(object));
+    }
+
+    private Path getObjectPath(String hash) {
+        return root.resolve(hash.substring(0, 2)).resolve(hash);
+    }
+
+    /**
+     * Writes the manifest sorted by path, so that an unchanged backup results in an unchanged manifest.
+     *
+     * @param componentBackup the directory to write the manifest to
+     * @param hashesByPath the hashes of the backed up files, keyed by their path relative to the maven repository
+     */
+    static void writeManifest(Path componentBackup, Map<String, String> hashesByPath) throws IOException {
+        Files.createDirectories(componentBackup);
+        Path manifest = componentBackup.resolve(MANIFEST_FILE_NAME);
+        try (BufferedWriter writer = Files.newBufferedWriter(manifest, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, String> entry : new TreeMap<>(hashesByPath).entrySet()) {
+                writer.write(entry.getValue());
+                writer.write(' ');
+                writer.write(entry.getKey());
+                writer.write('\n');
+            }
+        }
+    }
+
+    /**
+     * Reads the manifest written by {@link #writeManifest(Path, Map)}.
+     *
+     * @return the hashes of the backed up files, keyed by their path relative to the maven repository
+     */
+    static Map<String, String> readManifest(Path componentBackup) throws IOException {
+        Path manifest = componentBackup.resolve(MANIFEST_FILE_NAME);
+        List<String> lines = Files.readAllLines(manifest, StandardCharsets.UTF_8);
+        Map<String, String> hashesByPath = new LinkedHashMap<>();
+        for (String line : lines) {
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            int index = line.indexOf(' ');
+            if (index <= 0) {
+                throw new IllegalStateException("Bad line in " + manifest + ": " + line);
+            }
+            hashesByPath.put(line.substring(index + 1), line.substring(0, index));
+        }
+        return hashesByPath;
+    }
+}
@@ -0,0 +1,92 @@
+package org.overbaard.ci.multi.repo.directory.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Works out where to split a file from its contents rather than at fixed offsets. A rolling (gear) hash of the
+ * last 64 bytes is calculated, and a chunk ends wherever its top bits are all zero. Inserting or removing bytes
+ * only moves the boundaries near the change, so the rest of the chunks stay byte for byte the same between
+ * builds and git does not need to push them again.
+ * <p/>
+ * Chunks are never smaller than an eighth of the maximum size, apart from the last one, and never larger than
+ * the maximum size. On average they are around a third of the maximum size.
+ *
+ * @author <a href="mailto:kabir.khan@jboss.com">Kabir Khan</a>
+ */
+class ContentDefinedChunker {
+    // The gear hash is shifted one bit per byte, so only the last 64 bytes affect it
+    private static final int WINDOW_SIZE = 64;
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    // The table must be the same everywhere for the boundaries to be stable. java.util.Random's algorithm
+    // is part of its specification, so a fixed seed always gives the same values
+    private static final long[] GEAR = new long[256];
+    static {
+        Random random = new Random(0x6f622d6369L);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    private final long minSize;
+    private final long maxSize;
+    private final long mask;
+
+    ContentDefinedChunker(long maxSize) {
+        this.maxSize = maxSize;
+        this.minSize = maxSize / 8;
+        // Aim for boundaries to be found around a quarter of the maximum size past the minimum size
+        int bits = 63 - Long.numberOfLeadingZeros(maxSize / 4);
+        // The high bits depend on all the bytes in the window, while the low bits only depend on the last few
+        this.mask = ((1L << bits) - 1) << (64 - bits);
+    }
+
+    /**
+     * Gets the sizes of the chunks the channel's contents should be split into.
+     */
+    List<Long> getChunkSizes(FileChannel channel) throws IOException {
+        long size = channel.size();
+        List<Long> sizes = new ArrayList<>();
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        long chunkStart = 0;
+        while (chunkStart < size) {
+            long chunkEnd = findChunkEnd(channel, buffer, chunkStart, Math.min(chunkStart + maxSize, size));
+            sizes.add(chunkEnd - chunkStart);
+            chunkStart = chunkEnd;
+        }
+        return sizes;
+    }
+
+    private long findChunkEnd(FileChannel channel, ByteBuffer buffer, long chunkStart, long limit) throws IOException {
+        long minEnd = chunkStart + minSize;
+        if (minEnd >= limit) {
+            return limit;
+        }
+        // Nothing before the last window of the minimum size can affect the hash there, so skip reading it
+        long position = minEnd - WINDOW_SIZE;
+        long hash = 0;
+        while (position < limit) {
+            buffer.clear();
+            buffer.limit((int) Math.min(BUFFER_SIZE, limit - position));
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IllegalStateException("Unexpected end of file at " + position);
+            }
+            byte[] bytes = buffer.array();
+            for (int i = 0; i < read; i++) {
+                hash = (hash << 1) + GEAR[bytes[i] & 0xff];
+                long end = position + i + 1;
+                if (end >= minEnd && (hash & mask) == 0) {
+                    return end;
+                }
+            }
+            position += read;
+        }
+        return limit;
+    }
+}
@@ -0,0 +1,88 @@
+package org.overbaard.ci.multi.repo.directory.utils;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Checks whether a file has already been backed up with the same contents, either as a normal
+ * file or split into parts.
+ *
+ * @author <a href="mailto:kabir.khan@jboss.com">Kabir Khan</a>
+ */
+class FileComparison {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    static boolean isBackedUp(Path file, long size, Path backup) throws IOException {
+        if (Files.isRegularFile(backup)) {
+            if (Files.size(backup) != size) {
+                return false;
+            }
+            return sameContents(file, Collections.singletonList(backup));
+        }
+        Path splitDir = SplitFileUtil.getSplitFilesDirectory(backup);
+        if (Files.isDirectory(splitDir)) {
+            List<Path> parts = new SplitFileUtil().getParts(splitDir);
+            long partsSize = 0;
+            for (Path part : parts) {
+                partsSize += Files.size(part);
+            }
+            if (partsSize != size) {
+                return false;
+            }
+            return sameContents(file, parts);
+        }
+        return false;
+    }
+
+    private static boolean sameContents(Path file, List<Path> backupParts) throws IOException {
+        List<InputStream> streams = new ArrayList<>();
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE)) {
+            for (Path part : backupParts) {
+                streams.add(Files.newInputStream(part));
+            }
+            try (InputStream backupIn = new BufferedInputStream(
+                    new SequenceInputStream(Collections.enumeration(streams)), BUFFER_SIZE)) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                byte[] backupBuffer = new byte[BUFFER_SIZE];
+                while (true) {
+                    int read = readFully(in, buffer);
+                    int backupRead = readFully(backupIn, backupBuffer);
+                    if (read != backupRead) {
+                        return false;
+                    }
+                    if (read == 0) {
+                        return true;
+                    }
+                    for (int i = 0; i < read; i++) {
+                        if (buffer[i] != backupBuffer[i]) {
+                            return false;
+                        }
+                    }
+                }
+            }
+        } finally {
+            for (InputStream stream : streams) {
+                stream.close();
+            }
+        }
+    }
+
+    private static int readFully(InputStream in, byte[] buffer) throws IOException {
+        int total = 0;
+        while (total < buffer.length) {
+            int read = in.read(buffer, total, buffer.length - total);
+            if (read == -1) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,59 @@
+package org.overbaard.ci.multi.repo.directory.utils;
+
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Hard links files rather than copying them, which makes 'copying' a file a metadata operation.
+ * If the file system does not support hard links, or the first source and target are on different
+ * file stores, it falls back to copying for this and all later files. If linking a file fails for
+ * any other reason, such as the source having too many links, only that file gets copied.
+ * <p/>
+ * The linked files share their contents with the source, so this should only be used when nothing
+ * will modify the target files in place.
+ *
+ * @author <a href="mailto:kabir.khan@jboss.com">Kabir Khan</a>
+ */
+class FileLinker {
+    private volatile boolean linksSupported = true;
+    private volatile boolean fileStoresChecked;
+
+    void linkOrCopy(Path source, Path target) throws IOException {
+        Files.deleteIfExists(target);
+        if (linksSupported && !fileStoresChecked) {
+            checkFileStores(source, target);
+        }
+        if (linksSupported) {
+            try {
+                Files.createLink(target, source);
+                return;
+            } catch (UnsupportedOperationException e) {
+                System.out.println("WARN - hard links are not supported. Copying instead: " + e);
+                linksSupported = false;
+            } catch (FileSystemException e) {
+                System.out.println("WARN - could not link " + target + " to " + source + " (" + e.getReason() +
+                        "). Copying it instead");
+            }
+        }
+        Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private synchronized void checkFileStores(Path source, Path target) throws IOException {
+        if (fileStoresChecked) {
+            return;
+        }
+        // Hard links can't cross file stores, and there is no dedicated exception for that when linking
+        FileStore sourceStore = Files.getFileStore(source.toAbsolutePath().getParent());
+        FileStore targetStore = Files.getFileStore(target.toAbsolutePath().getParent());
+        if (!sourceStore.equals(targetStore)) {
+            System.out.println("WARN - " + source.getParent() + " and " + target.getParent() + " are on " +
+                    "different file systems, so files can't be hard linked. Copying instead");
+            linksSupported = false;
+        }
+        fileStoresChecked = true;
+    }
+}
@@ -0,0 +1,200 @@
+package org.overbaard.ci.multi.repo.directory.utils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.maven.model.Model;
+import org.apache.maven.model.Parent;
+import org.overbaard.ci.multi.repo.ToolCommand;
+
+/**
+ * Prints the version of a project by reading its pom.xml, rather than starting Maven to evaluate it. The version
+ * can come from the parent, and can use properties such as the {@code ${revision}} of CI friendly versions. These
+ * are looked up in the pom and the parents in the checkout, in {@code .mvn/maven.config} and in the system
+ * properties. Only the version is printed, so that the output can be used as it is.
+ *
+ * @author <a href="mailto:kabir.khan@jboss.com">Kabir Khan</a>
+ */
+public class GrabProjectVersion {
+    private static final Pattern PROPERTY = Pattern.compile("\\$\\{([^}]+)}");
+    // Properties can refer to other properties, but not endlessly
+    private static final int MAX_INTERPOLATIONS = 10;
+
+    private final Path pomXml;
+
+    GrabProjectVersion(Path pomXml) {
+        this.pomXml = pomXml.toAbsolutePath().normalize();
+    }
+
+    static void grab(String[] args) throws Exception {
+        if (args.length > 1) {
+            throw new IllegalStateException("Need the following args: [<pom.xml>]. Got: " + Arrays.asList(args));
+        }
+        Path pomXml = Paths.get(args.length == 0 ? "pom.xml" : args[0]);
+        if (!Files.exists(pomXml)) {
+            throw new IllegalStateException(pomXml + " does not exist");
+        }
+        System.out.println(new GrabProjectVersion(pomXml).getVersion());
+    }
+
+    String getVersion() throws IOException {
+        List<Model> models = readModelAndLocalParents();
+        Model model = models.get(0);
+        String version = model.getVersion();
+        if (version == null && model.getParent() != null) {
+            version = model.getParent().getVersion();
+        }
+        if (version == null) {
+            throw new IllegalStateException("No version found in " + pomXml);
+        }
+
+        Map<String, String> properties = new HashMap<>();
+        // Go from the top parent down, so that the children override the parents' properties
+        for (int i = models.size() - 1; i >= 0; i--) {
+            for (String name : models.get(i).getProperties().stringPropertyNames()) {
+                properties.put(name, models.get(i).getProperties().getProperty(name));
+            }
+        }
+        if (model.getParent() != null && model.getParent().getVersion() != null) {
+            properties.put("project.parent.version", model.getParent().getVersion());
+        }
+        properties.putAll(readMavenConfigProperties());
+        for (String name : System.getProperties().stringPropertyNames()) {
+            properties.put(name, System.getProperty(name));
+        }
+
+        String resolved = interpolate(version, properties);
+        if (PROPERTY.matcher(resolved).find()) {
+            throw new IllegalStateException("Could not resolve the version '" + version + "' of " + pomXml +
+                    ". Got as far as '" + resolved + "'");
+        }
+        return resolved;
+    }
+
+    /**
+     * Reads the pom, followed by the parents which can be found in the checkout.
+     */
+    private List<Model> readModelAndLocalParents() throws IOException {
+        List<Model> models = new ArrayList<>();
+        Path current = pomXml;
+        while (current != null) {
+            Model model = PomModelReader.readModel(current);
+            models.add(model);
+            current = findLocalParent(current, model.getParent());
+        }
+        return models;
+    }
+
+    private static Path findLocalParent(Path pomXml, Parent parent) throws IOException {
+        if (parent == null) {
+            return null;
+        }
+        String relativePath = parent.getRelativePath() == null ? "../pom.xml" : parent.getRelativePath();
+        if (relativePath.trim().isEmpty()) {
+            return null;
+        }
+        Path parentPom = pomXml.getParent().resolve(relativePath).normalize();
+        if (Files.isDirectory(parentPom)) {
+            parentPom = parentPom.resolve("pom.xml");
+        }
+        if (!Files.exists(parentPom)) {
+            return null;
+        }
+        // Only use it if it really is the parent, rather than some other pom which happens to be there
+        Model model = PomModelReader.readModel(parentPom);
+        String groupId = model.getGroupId() != null ? model.getGroupId() :
+                model.getParent() != null ? model.getParent().getGroupId() : null;
+        if (!Objects.equals(parent.getArtifactId(), model.getArtifactId()) || !Objects.equals(parent.getGroupId(), groupId)) {
+            return null;
+        }
+        return parentPom;
+    }
+
+    /**
+     * Reads the {@code -Dname=value} entries from {@code .mvn/maven.config}, which is where CI friendly
+     * versions usually get their {@code revision} from. Like Maven, the closest {@code .mvn} directory is used.
+     */
+    private Map<String, String> readMavenConfigProperties() throws IOException {
+        Path dir = pomXml.getParent();
+        while (dir != null && !Files.isDirectory(dir.resolve(".mvn"))) {
+            dir = dir.getParent();
+        }
+        if (dir == null || !Files.exists(dir.resolve(".mvn/maven.config"))) {
+            return Collections.emptyMap();
+        }
+        Path mavenConfig = dir.resolve(".mvn/maven.config");
+        Map<String, String> properties = new HashMap<>();
+        String contents = new String(Files.readAllBytes(mavenConfig), StandardCharsets.UTF_8).trim();
+        String[] tokens = contents.isEmpty() ? new String[0] : contents.split("\\s+");
+        for (int i = 0; i < tokens.length; i++) {
+            String property = null;
+            if (tokens[i].equals("-D") && i + 1 < tokens.length) {
+                property = tokens[++i];
+            } else if (tokens[i].startsWith("-D")) {
+                property = tokens[i].substring(2);
+            }
+            if (property != null) {
+                int index = property.indexOf('=');
+                if (index > 0) {
+                    properties.put(property.substring(0, index), property.substring(index + 1));
+                } else {
+                    properties.put(property, "true");
+                }
+            }
+        }
+        return properties;
+    }
+
+    private static String interpolate(String value, Map<String, String> properties) {
+        String current = value;
+        for (int i = 0; i < MAX_INTERPOLATIONS; i++) {
+            Matcher matcher = PROPERTY.matcher(current);
+            StringBuffer sb = new StringBuffer();
+            boolean replaced = false;
+            while (matcher.find()) {
+                String replacement = properties.get(matcher.group(1));
+                if (replacement != null) {
+                    replaced = true;
+                } else {
+                    replacement = matcher.group();
+                }
+                matcher.appendReplacement(sb, Matcher.quoteReplacement(replacement));
+            }
+            matcher.appendTail(sb);
+            current = sb.toString();
+            if (!replaced) {
+                break;
+            }
+        }
+        return current;
+    }
+
+    /**
+     * @author <a href="mailto:kabir.khan@jboss.com">Kabir Khan</a>
+     */
+    public static class Command implements ToolCommand {
+        public static final String NAME = "grab-project-version";
+
+        @Override
+        public String getDescription() {
+            return "Prints the version of the project from its pom.xml";
+        }
+
+        @Override
+        public void invoke(String[] args) throws Exception {
+            grab(args);
+        }
+    }
+}
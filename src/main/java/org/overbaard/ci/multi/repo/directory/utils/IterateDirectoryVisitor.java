@@ -1,41 +1,105 @@
 package org.overbaard.ci.multi.repo.directory.utils;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
+ * Finds the files to split, or the split directories to merge, using the attributes the walk already has rather
+ * than listing and checking the size of everything again. Nothing is split or merged during the walk. Once all
+ * the walks using the visitor are done, {@link #processLargeFiles()} handles what was found in parallel.
+ *
  * @author <a href="mailto:kabir.khan@jboss.com">Kabir Khan</a>
  */
 public class IterateDirectoryVisitor extends SimpleFileVisitor<Path> {
     private final LargeFileAction largeFileAction;
+    private final SplitFileUtil splitFileUtil;
+    private final List<Path> largeFiles = new ArrayList<>();
 
     public IterateDirectoryVisitor(LargeFileAction largeFileAction) {
+        this(largeFileAction, new SplitFileUtil());
+    }
+
+    IterateDirectoryVisitor(LargeFileAction largeFileAction, SplitFileUtil splitFileUtil) {
         this.largeFileAction = largeFileAction;
+        this.splitFileUtil = splitFileUtil;
+    }
+
+    /**
+     * Walks the directory, and splits or merges the large files in it.
+     */
+    static void processDirectory(Path dir, LargeFileAction largeFileAction, SplitFileUtil splitFileUtil) throws IOException {
+        IterateDirectoryVisitor visitor = new IterateDirectoryVisitor(largeFileAction, splitFileUtil);
+        Files.walkFileTree(dir, visitor);
+        visitor.processLargeFiles();
     }
 
     @Override
-    public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
-        if (largeFileAction == LargeFileAction.MERGE) {
-            if (SplitFileUtil.isSplitFilesDirectory(dir)) {
-                new SplitFileUtil().mergeFiles(dir);
-                return FileVisitResult.SKIP_SUBTREE;
+    public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+        if (SplitFileUtil.isSplitFilesDirectory(dir)) {
+            // The parts are all small enough already, so there is nothing to split in here
+            if (largeFileAction == LargeFileAction.MERGE) {
+                largeFiles.add(dir);
             }
+            return FileVisitResult.SKIP_SUBTREE;
+        }
+        return FileVisitResult.CONTINUE;
+    }
+
+    @Override
+    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+        if (largeFileAction == LargeFileAction.SPLIT && attrs.isRegularFile() && splitFileUtil.needsSplitting(attrs.size())) {
+            largeFiles.add(file);
         }
-        try (Stream<Path> stream = Files.list(dir)) {
-            List<Path> list = stream.collect(Collectors.toList());
-            for (Path f : list) {
+        return FileVisitResult.CONTINUE;
+    }
+
+    /**
+     * Splits or merges the large files found by the walks so far.
+     */
+    void processLargeFiles() throws IOException {
+        if (largeFiles.isEmpty()) {
+            return;
+        }
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (Path path : largeFiles) {
+            tasks.add(() -> {
                 if (largeFileAction == LargeFileAction.SPLIT) {
-                    new SplitFileUtil().splitFile(f);
+                    splitFileUtil.splitFile(path);
+                } else {
+                    splitFileUtil.mergeFiles(path);
                 }
+                return null;
+            });
+        }
+        largeFiles.clear();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(tasks.size(), Runtime.getRuntime().availableProcessors()));
+        try {
+            for (Future<Void> result : executor.invokeAll(tasks)) {
+                result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
             }
+            throw new IOException(cause);
+        } finally {
+            executor.shutdownNow();
         }
-
-        return FileVisitResult.CONTINUE;
     }
 }
@@ -1,38 +1,89 @@
 package org.overbaard.ci.multi.repo.directory.utils;
 
 import java.io.IOException;
-import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.SimpleFileVisitor;
-import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import org.overbaard.ci.multi.repo.ToolCommand;
-import org.overbaard.ci.multi.repo.Util;
 
 /**
  * @author <a href="mailto:kabir.khan@jboss.com">Kabir Khan</a>
  */
 public class OverlayBackedUpMavenArtifacts {
+    public static final String ARG_OBJECT_STORE = "--object-store";
+    public static final String ARG_LINK = "--link";
+    public static final String ARG_PROJECT = "--project";
+    public static final String ARG_THREADS = "--threads";
+
+    private static final String STAGING_SUFFIX = ".ob-ci-staging";
 
     private final Path mavenRepoRoot;
     private final Path backupsFolder;
+    private final ContentAddressedStore objectStore;
+    private final FileLinker linker;
+    private final Path projectPom;
+    private final int threads;
 
     public OverlayBackedUpMavenArtifacts(Path mavenRepoRoot, Path backupsFolder) {
+        this(mavenRepoRoot, backupsFolder, null, false, null, ParallelFileCopier.defaultThreads());
+    }
+
+    /**
+     * @param projectPom if not {@code null}, only the backed up modules needed by this project get overlaid
+     */
+    OverlayBackedUpMavenArtifacts(Path mavenRepoRoot, Path backupsFolder, ContentAddressedStore objectStore,
+                                  boolean link, Path projectPom, int threads) {
         this.mavenRepoRoot = mavenRepoRoot.toAbsolutePath();
         this.backupsFolder = backupsFolder.toAbsolutePath();
+        this.objectStore = objectStore;
+        this.linker = link ? new FileLinker() : null;
+        this.projectPom = projectPom;
+        this.threads = threads;
     }
 
     static void overlay(String[] args) throws Exception {
-        if (args.length != 2) {
-            throw new IllegalStateException("Needs: <maven repo> <backups folder>");
+        ContentAddressedStore objectStore = null;
+        boolean link = false;
+        Path projectPom = null;
+        int threads = ParallelFileCopier.defaultThreads();
+        List<String> paths = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith(ARG_THREADS + "=")) {
+                String val = arg.substring(ARG_THREADS.length() + 1);
+                try {
+                    threads = Integer.parseInt(val);
+                } catch (NumberFormatException e) {
+                    throw new IllegalStateException(ARG_THREADS + " '" + val + "' is not an integer");
+                }
+            } else if (arg.startsWith(ARG_OBJECT_STORE + "=")) {
+                objectStore = new ContentAddressedStore(Paths.get(arg.substring(ARG_OBJECT_STORE.length() + 1)));
+            } else if (arg.equals(ARG_LINK)) {
+                link = true;
+            } else if (arg.startsWith(ARG_PROJECT + "=")) {
+                projectPom = Paths.get(arg.substring(ARG_PROJECT.length() + 1)).toAbsolutePath();
+            } else {
+                paths.add(arg);
+            }
         }
-        Path mavenRepoRoot = Paths.get(args[0]);
-        Path backupsFolder = Paths.get(args[1]);
+        if (paths.size() != 2) {
+            throw new IllegalStateException("Needs: [" + ARG_THREADS + "=<n>] [" + ARG_OBJECT_STORE + "=<dir>] [" + ARG_LINK + "] " +
+                    "[" + ARG_PROJECT + "=<root pom>] <maven repo> <backups folder>");
+        }
+        Path mavenRepoRoot = Paths.get(paths.get(0));
+        Path backupsFolder = Paths.get(paths.get(1));
 
         if (!Files.exists(mavenRepoRoot) || !Files.isDirectory(mavenRepoRoot)) {
             throw new IllegalStateException("Maven repo root does not exist or is not a directory: " + mavenRepoRoot);
@@ -40,61 +91,231 @@ public class OverlayBackedUpMavenArtifacts {
         if (!Files.exists(backupsFolder) || !Files.isDirectory(backupsFolder)) {
             throw new IllegalStateException("Backups folder does not exist or is not a directory: " + backupsFolder);
         }
+        if (projectPom != null && !Files.exists(projectPom)) {
+            throw new IllegalStateException("Project pom does not exist: " + projectPom);
+        }
 
-        OverlayBackedUpMavenArtifacts overlay = new OverlayBackedUpMavenArtifacts(mavenRepoRoot, backupsFolder);
+        OverlayBackedUpMavenArtifacts overlay = new OverlayBackedUpMavenArtifacts(mavenRepoRoot, backupsFolder, objectStore, link, projectPom, threads);
         overlay.overlay();
     }
 
     private void overlay() throws Exception {
+        List<Path> componentBackups;
         try (Stream<Path> stream = Files.list(backupsFolder).filter(p -> Files.isDirectory(p))) {
-            stream.forEach(componentBackup -> {
-                try {
-                    overlayComponent(componentBackup);
-                } catch (IOException e) {
-                    Util.rethrow(e);
+            componentBackups = stream.collect(Collectors.toList());
+        }
+
+        Predicate<String> moduleFilter = dir -> true;
+        if (projectPom != null) {
+            List<Path> indexed = componentBackups.stream()
+                    .filter(p -> !PackedBackup.isPacked(p))
+                    .collect(Collectors.toList());
+            Set<String> needed = ReferencedArtifacts.find(projectPom, indexed, objectStore);
+            moduleFilter = needed::contains;
+        }
+
+        try (ParallelFileCopier copier = new ParallelFileCopier(threads)) {
+            for (Path componentBackup : componentBackups) {
+                // Within a component each maven repository directory is overlaid by a single task. Different
+                // components may have backed up the same directory though, so wait for each component's tasks
+                // to complete before starting on the next one, rather than having two tasks replacing the
+                // same directory at the same time
+                overlayComponent(copier, componentBackup, moduleFilter);
+                copier.awaitCompletion();
+            }
+        }
+    }
+
+    /**
+     * @param moduleFilter filters the backed up directories to overlay, by their path relative
+     *                     to the component backup directory
+     */
+    private void overlayComponent(ParallelFileCopier copier, Path componentBackup, Predicate<String> moduleFilter) throws Exception {
+        if (ContentAddressedStore.hasManifest(componentBackup)) {
+            overlayComponentFromObjectStore(copier, componentBackup, moduleFilter);
+            return;
+        }
+        if (PackedBackup.isPacked(componentBackup)) {
+            PackedBackup.unpack(componentBackup, mavenRepoRoot);
+            return;
+        }
+        overlayDirectory(copier, componentBackup, componentBackup, moduleFilter);
+    }
+
+    /**
+     * Walks the backup directory tree, submitting a task to replace the contents of each maven repository
+     * directory which has backed up files.
+     */
+    private void overlayDirectory(ParallelFileCopier copier, Path componentBackup, Path backupDir,
+                                  Predicate<String> moduleFilter) throws IOException {
+        List<Path> files = new ArrayList<>();
+        List<Path> subDirs = new ArrayList<>();
+        try (Stream<Path> stream = Files.list(backupDir)) {
+            stream.forEach(p -> {
+                if (Files.isDirectory(p) && !SplitFileUtil.isSplitFilesDirectory(p)) {
+                    subDirs.add(p);
+                } else {
+                    files.add(p);
                 }
             });
         }
+
+        String relativeDir = componentBackup.relativize(backupDir).toString().replace('\\', '/');
+        if (files.size() > 0 && moduleFilter.test(relativeDir)) {
+            Path repoDir = mavenRepoRoot.resolve(relativeDir);
+            Set<String> keep = new HashSet<>();
+            for (Path subDir : subDirs) {
+                keep.add(subDir.getFileName().toString());
+            }
+            copier.submit(() -> {
+                replaceDirectory(repoDir, keep, dir -> {
+                    for (Path file : files) {
+                        if (SplitFileUtil.isSplitFilesDirectory(file)) {
+                            Path target = dir.resolve(SplitFileUtil.getFileFromSplitFilesDirectory(file).getFileName());
+                            System.out.println("Merging " + file + " to " + target);
+                            new SplitFileUtil().mergeFilesTo(file, target);
+                        } else {
+                            Path target = dir.resolve(file.getFileName());
+                            if (linker != null) {
+                                System.out.println("Linking " + file + " to " + target);
+                                linker.linkOrCopy(file, target);
+                            } else {
+                                System.out.println("Copying " + file + " to " + target);
+                                Files.copy(file, target, StandardCopyOption.REPLACE_EXISTING);
+                            }
+                        }
+                    }
+                });
+                return null;
+            });
+        }
+
+        for (Path subDir : subDirs) {
+            overlayDirectory(copier, componentBackup, subDir, moduleFilter);
+        }
     }
 
-    private void overlayComponent(Path componentBackup) throws IOException {
-        deleteExistingPathsInMavenRepo(componentBackup);
-        Files.walkFileTree(componentBackup, new CopyDirectoryVisitor(LargeFileAction.MERGE, componentBackup, mavenRepoRoot));
+    /**
+     * Replaces the maven repository directory with one containing what the writer puts there.
+     * <p/>
+     * The new contents are written to a sibling staging directory, which is then renamed into place. So if the
+     * overlay gets interrupted, the repository directory is either the old or the new one, and never partly
+     * written. Since directories cannot be swapped atomically, the old directory is renamed out of the way
+     * first, so for a moment the directory is missing. Leftovers from an interrupted overlay get removed the
+     * next time the directory is overlaid. Only one task at a time overlays a given directory, so any staging
+     * directories found for it are leftovers rather than being written to by another task.
+     * <p/>
+     * If sub-directories are overlaid by other tasks, the directory can't be moved, so its contents get
+     * replaced in place instead.
+     *
+     * @param keep the names of the sub-directories overlaid by other tasks
+     */
+    private void replaceDirectory(Path repoDir, Set<String> keep, DirectoryWriter writer) throws IOException {
+        if (keep.size() > 0 || repoDir.equals(mavenRepoRoot)) {
+            clearDirectory(repoDir, keep);
+            writer.write(repoDir);
+            return;
+        }
+
+        Path parent = repoDir.getParent();
+        Files.createDirectories(parent);
+        String prefix = "." + repoDir.getFileName() + STAGING_SUFFIX;
+        try (Stream<Path> stream = Files.list(parent)) {
+            for (Path leftover : stream.filter(p -> p.getFileName().toString().startsWith(prefix)).collect(Collectors.toList())) {
+                System.out.println("Removing leftover " + leftover);
+                Files.walkFileTree(leftover, new DeleteFilesVisitor());
+            }
+        }
+
+        Path staging = Files.createTempDirectory(parent, prefix);
+        writer.write(staging);
+        if (Files.exists(repoDir)) {
+            Path old = parent.resolve(staging.getFileName() + ".old");
+            Files.move(repoDir, old, StandardCopyOption.ATOMIC_MOVE);
+            Files.move(staging, repoDir, StandardCopyOption.ATOMIC_MOVE);
+            Files.walkFileTree(old, new DeleteFilesVisitor());
+        } else {
+            Files.move(staging, repoDir, StandardCopyOption.ATOMIC_MOVE);
+        }
     }
 
-    private void deleteExistingPathsInMavenRepo(Path componentBackup) throws IOException {
-        Set<Path> deletePaths = new HashSet<>();
-        Files.walkFileTree(componentBackup, new SimpleFileVisitor<Path>(){
-            @Override
-            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                Path backupFolder = file.getParent();
-                Path relative = componentBackup.relativize(backupFolder);
-                Path repoPath = mavenRepoRoot.resolve(relative);
-                deletePaths.add(repoPath);
-                return super.visitFile(file, attrs);
+    /**
+     * Empties the maven repository directory, creating it if it does not exist. Sub-directories which
+     * get overlaid by other tasks are left alone, as are the staging directories of those tasks, which
+     * may be writing to them at the same time. Leftover staging directories get removed by the task
+     * overlaying the directory they belong to.
+     *
+     * @param keep the names of the sub-directories to keep
+     */
+    private static void clearDirectory(Path repoDir, Set<String> keep) throws IOException {
+        Files.createDirectories(repoDir);
+        List<Path> existing;
+        try (Stream<Path> stream = Files.list(repoDir)) {
+            existing = stream.collect(Collectors.toList());
+        }
+        for (Path path : existing) {
+            if (Files.isDirectory(path)) {
+                if (!keep.contains(path.getFileName().toString()) && !isStagingDirectory(path)) {
+                    Files.walkFileTree(path, new DeleteFilesVisitor());
+                }
+            } else {
+                Files.delete(path);
             }
-        });
+        }
+    }
+
+    private static boolean isStagingDirectory(Path path) {
+        String name = path.getFileName().toString();
+        return name.startsWith(".") && name.contains(STAGING_SUFFIX);
+    }
 
-        for (Path repoDir : deletePaths) {
-            if (!Files.exists(repoDir)) {
-                break;
+    private void overlayComponentFromObjectStore(ParallelFileCopier copier, Path componentBackup,
+                                                 Predicate<String> moduleFilter) throws IOException {
+        if (objectStore == null) {
+            throw new IllegalStateException(componentBackup + " was backed up to an object store. " +
+                    "Use " + ARG_OBJECT_STORE + " to specify its location");
+        }
+
+        // Group the files by directory, keeping track of which directories are the parents of others
+        Map<String, Map<String, String>> hashesByDir = new LinkedHashMap<>();
+        Map<String, Set<String>> subDirsByDir = new HashMap<>();
+        for (Map.Entry<String, String> entry : ContentAddressedStore.readManifest(componentBackup).entrySet()) {
+            String path = entry.getKey();
+            int index = path.lastIndexOf('/');
+            String dir = index < 0 ? "" : path.substring(0, index);
+            if (moduleFilter.test(dir)) {
+                hashesByDir.computeIfAbsent(dir, d -> new LinkedHashMap<>()).put(path, entry.getValue());
             }
-            Files.walkFileTree(repoDir, new SimpleFileVisitor<Path>(){
-                @Override
-                public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
-                    Files.delete(dir);
-                    return super.postVisitDirectory(dir, exc);
-                }
+        }
+        for (String dir : hashesByDir.keySet()) {
+            String child = dir;
+            for (int index = child.lastIndexOf('/'); index > 0; index = child.lastIndexOf('/')) {
+                String parent = child.substring(0, index);
+                subDirsByDir.computeIfAbsent(parent, d -> new HashSet<>()).add(child.substring(index + 1));
+                child = parent;
+            }
+        }
 
-                @Override
-                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                    Files.delete(file);
-                    return super.visitFile(file, attrs);
-                }
+        for (Map.Entry<String, Map<String, String>> dirEntry : hashesByDir.entrySet()) {
+            Path repoDir = mavenRepoRoot.resolve(dirEntry.getKey());
+            Set<String> keep = subDirsByDir.getOrDefault(dirEntry.getKey(), Collections.emptySet());
+            copier.submit(() -> {
+                replaceDirectory(repoDir, keep, dir -> {
+                    for (Map.Entry<String, String> entry : dirEntry.getValue().entrySet()) {
+                        Path target = dir.resolve(mavenRepoRoot.resolve(entry.getKey()).getFileName());
+                        System.out.println("Restoring " + target + " from object " + entry.getValue());
+                        objectStore.materialize(entry.getValue(), target, linker);
+                    }
+                });
+                return null;
             });
         }
     }
 
+    private interface DirectoryWriter {
+        void write(Path dir) throws IOException;
+    }
+
     public static class Command implements ToolCommand {
         public static final String NAME = "overlay-backed-up-maven-artifacts";
 
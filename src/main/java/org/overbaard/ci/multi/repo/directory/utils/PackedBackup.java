@@ -0,0 +1,150 @@
+package org.overbaard.ci.multi.repo.directory.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.GregorianCalendar;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Packs the backed up artifacts of a component into a single zip archive rather than thousands of loose files.
+ * If the archive is too large it gets split like any other large file. When overlaying, the archive (or its
+ * parts) is streamed straight into the maven repository without extracting it anywhere else first.
+ * <p/>
+ * Each backed up directory gets a directory entry ahead of its files. When overlaying, the directory is deleted
+ * from the maven repository when its entry is read, so what ends up there is exactly what was backed up.
+ *
+ * @author <a href="mailto:kabir.khan@jboss.com">Kabir Khan</a>
+ */
+class PackedBackup {
+    static final String ARCHIVE_FILE_NAME = "artifacts.zip";
+
+    // Jars and the like are already compressed, so don't waste time compressing them again
+    private static final Set<String> COMPRESSED_EXTENSIONS =
+            new HashSet<>(Arrays.asList("jar", "war", "ear", "rar", "zip", "gz", "tgz", "bz2", "xz"));
+
+    // Use a fixed time for the entries so that the same contents result in an identical archive
+    private static final long ENTRY_TIME = new GregorianCalendar(1980, 0, 1).getTimeInMillis();
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    static boolean isPacked(Path componentBackup) {
+        Path archive = componentBackup.resolve(ARCHIVE_FILE_NAME);
+        return Files.exists(archive) || Files.exists(SplitFileUtil.getSplitFilesDirectory(archive));
+    }
+
+    /**
+     * Packs the directories into the component backup directory's archive.
+     *
+     * @param mavenRepo the maven repository
+     * @param infos the projects whose directories in the maven repository should be packed
+     * @param filter the filter for the files to pack
+     * @param componentBackup the directory to write the archive to
+     */
+    static void pack(Path mavenRepo, List<ProjectArtifactInfo> infos, ArtifactFilter filter, Path componentBackup) throws IOException {
+        Files.createDirectories(componentBackup);
+        Path archive = componentBackup.resolve(ARCHIVE_FILE_NAME);
+        System.out.println("Packing artifacts into " + archive);
+        try (ZipOutputStream zip = new ZipOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(archive), BUFFER_SIZE))) {
+            for (ProjectArtifactInfo info : infos) {
+                Path sourceDir = mavenRepo.resolve(info.getRelativePath());
+                if (!Files.exists(sourceDir)) {
+                    System.out.println("WARN - cannot find module directory, skipping: " + sourceDir);
+                    continue;
+                }
+                // Sort the paths so the archive does not depend on the order the file system lists them in.
+                // Directories still come before their contents
+                List<Path> paths;
+                try (Stream<Path> stream = Files.walk(sourceDir)) {
+                    paths = stream.sorted().collect(Collectors.toList());
+                }
+                Predicate<Path> fileFilter = filter.forArtifact(info);
+                for (Path path : paths) {
+                    if (Files.isDirectory(path)) {
+                        zip.putNextEntry(createEntry(mavenRepo, path, true));
+                        zip.closeEntry();
+                    } else if (fileFilter.test(path)) {
+                        System.out.println("Packing " + path);
+                        zip.setLevel(isCompressed(path) ? Deflater.NO_COMPRESSION : Deflater.BEST_SPEED);
+                        zip.putNextEntry(createEntry(mavenRepo, path, false));
+                        Files.copy(path, zip);
+                        zip.closeEntry();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Streams the archive in the component backup directory into the maven repository. If the archive was split,
+     * the parts are read in order, and left in place.
+     */
+    static void unpack(Path componentBackup, Path mavenRepoRoot) throws IOException {
+        Path mavenRepo = mavenRepoRoot.toAbsolutePath().normalize();
+        Path archive = componentBackup.resolve(ARCHIVE_FILE_NAME);
+        List<InputStream> streams = new ArrayList<>();
+        try {
+            if (Files.exists(archive)) {
+                streams.add(Files.newInputStream(archive));
+            } else {
+                for (Path part : new SplitFileUtil().getParts(SplitFileUtil.getSplitFilesDirectory(archive))) {
+                    streams.add(Files.newInputStream(part));
+                }
+            }
+            System.out.println("Unpacking " + archive + " into " + mavenRepo);
+            try (ZipInputStream zip = new ZipInputStream(new BufferedInputStream(
+                    new SequenceInputStream(Collections.enumeration(streams)), BUFFER_SIZE))) {
+                for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+                    Path target = mavenRepo.resolve(entry.getName()).normalize();
+                    if (!target.startsWith(mavenRepo)) {
+                        throw new IllegalStateException("Entry " + entry.getName() + " is outside the maven repository");
+                    }
+                    if (entry.isDirectory()) {
+                        if (Files.exists(target)) {
+                            Files.walkFileTree(target, new DeleteFilesVisitor());
+                        }
+                        Files.createDirectories(target);
+                    } else {
+                        System.out.println("Unpacking " + target);
+                        Files.copy(zip, target, StandardCopyOption.REPLACE_EXISTING);
+                    }
+                }
+            }
+        } finally {
+            for (InputStream stream : streams) {
+                stream.close();
+            }
+        }
+    }
+
+    private static ZipEntry createEntry(Path mavenRepo, Path path, boolean directory) {
+        String name = mavenRepo.relativize(path).toString().replace('\\', '/');
+        ZipEntry entry = new ZipEntry(directory ? name + "/" : name);
+        entry.setTime(ENTRY_TIME);
+        return entry;
+    }
+
+    private static boolean isCompressed(Path file) {
+        String name = file.getFileName().toString();
+        int index = name.lastIndexOf('.');
+        return index >= 0 && COMPRESSED_EXTENSIONS.contains(name.substring(index + 1));
+    }
+}
@@ -0,0 +1,162 @@
+package org.overbaard.ci.multi.repo.directory.utils;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Copies directory trees using a bounded pool of worker threads. The directory walk happens on the
+ * calling thread, which creates the target directories and hands off the individual file copies
+ * to the workers. If the work queue is full the calling thread does the copy itself, which keeps
+ * the number of queued copies bounded.
+ * <p/>
+ * If created with a {@link SplitFileUtil}, files which are too large to push are split straight from the
+ * source into a split directory in the target, rather than being copied in full and split afterwards.
+ *
+ * @author <a href="mailto:kabir.khan@jboss.com">Kabir Khan</a>
+ */
+class ParallelFileCopier implements AutoCloseable {
+    private final ThreadPoolExecutor executor;
+    private final List<Future<?>> copies = new ArrayList<>();
+    private final SplitFileUtil splitFileUtil;
+
+    ParallelFileCopier(int threads) {
+        this(threads, null);
+    }
+
+    /**
+     * @param splitFileUtil used to split large files as they are copied. If {@code null} they are copied as they are
+     */
+    ParallelFileCopier(int threads, SplitFileUtil splitFileUtil) {
+        if (threads < 1) {
+            throw new IllegalStateException("Number of threads must be at least 1: " + threads);
+        }
+        this.executor = new ThreadPoolExecutor(
+                threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(threads * 64),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        this.splitFileUtil = splitFileUtil;
+    }
+
+    static int defaultThreads() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    void copyDirectory(Path sourceDir, Path targetDir) throws IOException {
+        copyDirectory(sourceDir, targetDir, file -> true, null);
+    }
+
+    /**
+     * Copies the directory, skipping the files not accepted by the filter.
+     */
+    void copyDirectory(Path sourceDir, Path targetDir, Predicate<Path> filter) throws IOException {
+        copyDirectory(sourceDir, targetDir, filter, null);
+    }
+
+    /**
+     * Copies the directory, skipping files which have already been backed up with the same contents
+     * in the target directory. If a file needs copying, any previous split version of it is removed.
+     *
+     * @param filter the files to copy
+     * @param backedUpFiles gets the paths of all the files that are now in the target directory added to it
+     */
+    void copyChangedFiles(Path sourceDir, Path targetDir, Predicate<Path> filter, Set<Path> backedUpFiles) throws IOException {
+        copyDirectory(sourceDir, targetDir, filter, backedUpFiles);
+    }
+
+    private void copyDirectory(Path sourceDir, Path targetDir, Predicate<Path> filter, Set<Path> backedUpFiles) throws IOException {
+        final Path source = sourceDir.toAbsolutePath();
+        final Path target = targetDir.toAbsolutePath();
+        Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                Files.createDirectories(target.resolve(source.relativize(dir)));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                if (!filter.test(file)) {
+                    return FileVisitResult.CONTINUE;
+                }
+                Path targetFile = target.resolve(source.relativize(file));
+                boolean split = splitFileUtil != null && splitFileUtil.needsSplitting(attrs.size());
+                submit(() -> {
+                    if (backedUpFiles != null) {
+                        backedUpFiles.add(targetFile);
+                        if (FileComparison.isBackedUp(file, attrs.size(), targetFile)) {
+                            System.out.println("Unchanged " + file);
+                            if (split && Files.isRegularFile(targetFile)) {
+                                // Backed up whole with a larger split size
+                                splitFileUtil.splitFile(targetFile);
+                            }
+                            return null;
+                        }
+                    }
+                    if (split) {
+                        splitFileUtil.splitFileTo(file, targetFile);
+                        return null;
+                    }
+                    if (backedUpFiles != null) {
+                        Path splitDir = SplitFileUtil.getSplitFilesDirectory(targetFile);
+                        if (Files.exists(splitDir)) {
+                            Files.walkFileTree(splitDir, new DeleteFilesVisitor());
+                        }
+                    }
+                    System.out.println("Copying " + file + " to " + targetFile);
+                    Files.copy(file, targetFile, StandardCopyOption.REPLACE_EXISTING);
+                    return null;
+                });
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Runs some other file work on the worker threads. Like the copies, its completion is waited for
+     * by {@link #awaitCompletion()}.
+     */
+    void submit(Callable<Void> task) {
+        copies.add(executor.submit(task));
+    }
+
+    /**
+     * Waits for all the copies submitted so far to complete.
+     *
+     * @throws IOException the first error encountered by a copy
+     */
+    void awaitCompletion() throws IOException, InterruptedException {
+        try {
+            for (Future<?> copy : copies) {
+                copy.get();
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        } finally {
+            copies.clear();
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,60 @@
+package org.overbaard.ci.multi.repo.directory.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.maven.model.Model;
+import org.apache.maven.model.io.xpp3.MavenXpp3Reader;
+
+/**
+ * Reads the maven model of a pom.xml. The file is only read once, and the encoding is
+ * determined from the XML declaration in the bytes read.
+ *
+ * @author <a href="mailto:kabir.khan@jboss.com">Kabir Khan</a>
+ */
+class PomModelReader {
+    private static final XMLInputFactory XML_INPUT_FACTORY = XMLInputFactory.newInstance();
+
+    static Model readModel(Path pomXml) throws IOException {
+        byte[] bytes = Files.readAllBytes(pomXml);
+        Charset encoding = getEncoding(pomXml, bytes);
+        try (Reader reader = new InputStreamReader(new ByteArrayInputStream(bytes), encoding)) {
+            final MavenXpp3Reader xpp3Reader = new MavenXpp3Reader();
+            final Model model = xpp3Reader.read(reader);
+            model.setPomFile(pomXml.toFile());
+
+            return model;
+        } catch (org.codehaus.plexus.util.xml.pull.XmlPullParserException ex) {
+            throw new IOException("Failed to parse artifact POM model", ex);
+        }
+    }
+
+    private static Charset getEncoding(Path pomXml, byte[] bytes) throws IOException {
+        Charset charset = StandardCharsets.UTF_8;
+        try {
+            // This only reads as far as the XML declaration
+            XMLStreamReader xmlReader = XML_INPUT_FACTORY.createXMLStreamReader(new ByteArrayInputStream(bytes));
+            try {
+                String encoding = xmlReader.getCharacterEncodingScheme();
+                if (encoding != null) {
+                    charset = Charset.forName(encoding);
+                }
+            } finally {
+                xmlReader.close();
+            }
+        } catch (XMLStreamException ex) {
+            throw new IOException("Failed to retrieve encoding for " + pomXml, ex);
+        }
+        return charset;
+    }
+}
@@ -51,6 +51,14 @@ public class ProjectArtifactInfo {
         return version;
     }
 
+    public String getArtifactId() {
+        return artifactId;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
     public String getRelativePath() {
         return relativePath;
     }
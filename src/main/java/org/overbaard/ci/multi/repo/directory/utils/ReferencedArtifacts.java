@@ -0,0 +1,315 @@
+package org.overbaard.ci.multi.repo.directory.utils;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.maven.model.Build;
+import org.apache.maven.model.BuildBase;
+import org.apache.maven.model.Dependency;
+import org.apache.maven.model.DependencyManagement;
+import org.apache.maven.model.Extension;
+import org.apache.maven.model.Model;
+import org.apache.maven.model.Parent;
+import org.apache.maven.model.Plugin;
+import org.apache.maven.model.PluginManagement;
+import org.apache.maven.model.Profile;
+
+/**
+ * Works out which of the backed up modules are needed by a project, so that only those need overlaying.
+ * <p/>
+ * The artifacts referenced by the project's poms (parents, dependencies, managed dependencies, plugins and extensions)
+ * are looked up among the backed up modules, and the poms of the ones found are then read in turn to pick up
+ * what they reference. Only groupId and artifactId are matched, since the versions of the components are
+ * normally passed in as system properties. Anything which cannot be resolved from the pom alone, such as a
+ * groupId set via a property from the parent, matches more rather than less.
+ *
+ * @author <a href="mailto:kabir.khan@jboss.com">Kabir Khan</a>
+ */
+class ReferencedArtifacts {
+    private static final Pattern PROPERTY = Pattern.compile("\\$\\{([^}]+)}");
+
+    private final ContentAddressedStore objectStore;
+    private final Map<String, List<BackedUpModule>> modulesByGroupAndArtifactId = new HashMap<>();
+    private final Map<String, List<BackedUpModule>> modulesByArtifactId = new HashMap<>();
+    private int moduleCount;
+
+    private ReferencedArtifacts(ContentAddressedStore objectStore) {
+        this.objectStore = objectStore;
+    }
+
+    /**
+     * Finds the backed up modules needed by the project.
+     *
+     * @param rootPom the root pom of the project
+     * @param componentBackups the component backup directories to look in. Packed backups are not indexed, and
+     *                         should be overlaid in full
+     * @param objectStore the object store containing the files of backups with a manifest. May be {@code null}
+     *                    if there are none
+     * @return the needed module directories, relative to the component backup (or maven repository) root
+     */
+    static Set<String> find(Path rootPom, List<Path> componentBackups, ContentAddressedStore objectStore) throws IOException {
+        ReferencedArtifacts referencedArtifacts = new ReferencedArtifacts(objectStore);
+        for (Path componentBackup : componentBackups) {
+            referencedArtifacts.index(componentBackup);
+        }
+        return referencedArtifacts.select(rootPom);
+    }
+
+    private void index(Path componentBackup) throws IOException {
+        if (ContentAddressedStore.hasManifest(componentBackup)) {
+            for (Map.Entry<String, String> entry : ContentAddressedStore.readManifest(componentBackup).entrySet()) {
+                Path path = componentBackup.resolve(entry.getKey());
+                if (path.getFileName().toString().endsWith(".pom")) {
+                    addModule(new BackedUpModule(componentBackup, path, entry.getValue()));
+                }
+            }
+            return;
+        }
+        Files.walkFileTree(componentBackup, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                return SplitFileUtil.isSplitFilesDirectory(dir) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (file.getFileName().toString().endsWith(".pom")) {
+                    addModule(new BackedUpModule(componentBackup, file, null));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void addModule(BackedUpModule module) {
+        if (module.artifactId == null) {
+            return;
+        }
+        moduleCount++;
+        modulesByGroupAndArtifactId.computeIfAbsent(module.groupId + ":" + module.artifactId, k -> new ArrayList<>()).add(module);
+        modulesByArtifactId.computeIfAbsent(module.artifactId, k -> new ArrayList<>()).add(module);
+    }
+
+    private Set<String> select(Path rootPom) throws IOException {
+        Deque<String[]> references = new ArrayDeque<>();
+        addProjectReferences(rootPom, references, new HashSet<>());
+
+        Set<String> selected = new LinkedHashSet<>();
+        Set<String> seen = new HashSet<>();
+        while (!references.isEmpty()) {
+            String[] reference = references.pop();
+            String key = reference[0] + ":" + reference[1];
+            if (!seen.add(key)) {
+                continue;
+            }
+            List<BackedUpModule> modules = reference[0] == null ?
+                    modulesByArtifactId.get(reference[1]) : modulesByGroupAndArtifactId.get(key);
+            if (modules == null) {
+                continue;
+            }
+            for (BackedUpModule module : modules) {
+                if (selected.add(module.relativeDir)) {
+                    System.out.println("Selected " + module.relativeDir + " from " + module.componentBackup);
+                    addReferences(module.readModel(), references);
+                }
+            }
+        }
+        System.out.println("Selected " + selected.size() + " of " + moduleCount + " backed up modules");
+        return selected;
+    }
+
+    private void addProjectReferences(Path pomXml, Deque<String[]> references, Set<Path> visited) throws IOException {
+        Path pom = pomXml.toAbsolutePath().normalize();
+        if (!visited.add(pom)) {
+            return;
+        }
+        Model model = PomModelReader.readModel(pom);
+        addReferences(model, references);
+
+        List<String> modules = new ArrayList<>(model.getModules());
+        for (Profile profile : model.getProfiles()) {
+            modules.addAll(profile.getModules());
+        }
+        for (String module : modules) {
+            Path child = pom.getParent().resolve(module);
+            if (Files.isDirectory(child)) {
+                child = child.resolve("pom.xml");
+            }
+            if (!Files.exists(child)) {
+                System.out.println("WARN - cannot find module pom, skipping: " + child);
+                continue;
+            }
+            addProjectReferences(child, references, visited);
+        }
+    }
+
+    private static void addReferences(Model model, Deque<String[]> references) {
+        Properties properties = getProperties(model);
+        Parent parent = model.getParent();
+        if (parent != null) {
+            addReference(references, properties, parent.getGroupId(), parent.getArtifactId());
+        }
+        addReferences(references, properties, model.getDependencies(), model.getDependencyManagement(), model.getBuild());
+        Build build = model.getBuild();
+        if (build != null) {
+            for (Extension extension : build.getExtensions()) {
+                addReference(references, properties, extension.getGroupId(), extension.getArtifactId());
+            }
+        }
+        for (Profile profile : model.getProfiles()) {
+            addReferences(references, properties, profile.getDependencies(), profile.getDependencyManagement(), profile.getBuild());
+        }
+    }
+
+    private static void addReferences(Deque<String[]> references, Properties properties, List<Dependency> dependencies,
+                                      DependencyManagement dependencyManagement, BuildBase build) {
+        for (Dependency dependency : dependencies) {
+            addReference(references, properties, dependency.getGroupId(), dependency.getArtifactId());
+        }
+        if (dependencyManagement != null) {
+            for (Dependency dependency : dependencyManagement.getDependencies()) {
+                // As well as imported boms, a managed version can pin a backed up module which is only
+                // reached transitively via an artifact that was not backed up, so count them all
+                addReference(references, properties, dependency.getGroupId(), dependency.getArtifactId());
+            }
+        }
+        if (build != null) {
+            List<Plugin> plugins = new ArrayList<>(build.getPlugins());
+            PluginManagement pluginManagement = build.getPluginManagement();
+            if (pluginManagement != null) {
+                plugins.addAll(pluginManagement.getPlugins());
+            }
+            for (Plugin plugin : plugins) {
+                addReference(references, properties, plugin.getGroupId(), plugin.getArtifactId());
+                for (Dependency dependency : plugin.getDependencies()) {
+                    addReference(references, properties, dependency.getGroupId(), dependency.getArtifactId());
+                }
+            }
+        }
+    }
+
+    private static void addReference(Deque<String[]> references, Properties properties, String groupId, String artifactId) {
+        String resolvedArtifactId = resolve(properties, artifactId);
+        if (resolvedArtifactId == null) {
+            System.out.println("WARN - could not resolve artifactId " + artifactId + ". Ignoring it");
+            return;
+        }
+        // An unresolved groupId is null, which matches the artifactId in all groups
+        references.push(new String[]{resolve(properties, groupId), resolvedArtifactId});
+    }
+
+    private static Properties getProperties(Model model) {
+        Properties properties = new Properties();
+        properties.putAll(model.getProperties());
+        Parent parent = model.getParent();
+        String groupId = model.getGroupId();
+        String version = model.getVersion();
+        if (parent != null) {
+            putIfNotNull(properties, "project.parent.groupId", parent.getGroupId());
+            putIfNotNull(properties, "project.parent.version", parent.getVersion());
+            groupId = groupId == null ? parent.getGroupId() : groupId;
+            version = version == null ? parent.getVersion() : version;
+        }
+        putIfNotNull(properties, "project.groupId", groupId);
+        putIfNotNull(properties, "project.artifactId", model.getArtifactId());
+        putIfNotNull(properties, "project.version", version);
+        return properties;
+    }
+
+    private static void putIfNotNull(Properties properties, String key, String value) {
+        if (value != null) {
+            properties.put(key, value);
+        }
+    }
+
+    private static String resolve(Properties properties, String value) {
+        if (value == null) {
+            return null;
+        }
+        Matcher matcher = PROPERTY.matcher(value);
+        StringBuffer sb = new StringBuffer();
+        while (matcher.find()) {
+            String property = properties.getProperty(matcher.group(1));
+            if (property == null || property.contains("${")) {
+                return null;
+            }
+            matcher.appendReplacement(sb, Matcher.quoteReplacement(property));
+        }
+        matcher.appendTail(sb);
+        return sb.toString();
+    }
+
+    /**
+     * A backed up {@code <groupId>/<artifactId>/<version>} directory. The groupId and artifactId are worked
+     * out from the location and name of the pom, so no poms need reading until the module is selected.
+     */
+    private class BackedUpModule {
+        private final Path componentBackup;
+        private final Path pom;
+        private final String pomHash;
+        private final String relativeDir;
+        private final String groupId;
+        private final String artifactId;
+
+        BackedUpModule(Path componentBackup, Path pom, String pomHash) {
+            this.componentBackup = componentBackup;
+            this.pom = pom;
+            this.pomHash = pomHash;
+            this.relativeDir = componentBackup.relativize(pom.getParent()).toString().replace('\\', '/');
+
+            // See ProjectArtifactInfo for how the directory gets laid out
+            String groupId = null;
+            String artifactId = null;
+            int index = relativeDir.lastIndexOf('/');
+            if (index > 0) {
+                String version = relativeDir.substring(index + 1);
+                String name = pom.getFileName().toString();
+                String suffix = "-" + version + ".pom";
+                if (name.endsWith(suffix)) {
+                    String candidate = name.substring(0, name.length() - suffix.length());
+                    String artifactPath = relativeDir.substring(0, index);
+                    String artifactSuffix = "/" + candidate.replace('.', '/');
+                    if (artifactPath.endsWith(artifactSuffix)) {
+                        artifactId = candidate;
+                        groupId = artifactPath.substring(0, artifactPath.length() - artifactSuffix.length()).replace('/', '.');
+                    }
+                }
+            }
+            this.groupId = groupId;
+            this.artifactId = artifactId;
+        }
+
+        Model readModel() throws IOException {
+            if (pomHash == null) {
+                return PomModelReader.readModel(pom);
+            }
+            if (objectStore == null) {
+                throw new IllegalStateException(componentBackup + " was backed up to an object store. " +
+                        "Use " + OverlayBackedUpMavenArtifacts.ARG_OBJECT_STORE + " to specify its location");
+            }
+            Path tmp = Files.createTempFile("ob-ci", ".pom");
+            try {
+                objectStore.materialize(pomHash, tmp, null);
+                return PomModelReader.readModel(tmp);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package org.overbaard.ci.multi.repo.directory.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+/**
+ * Calculates SHA-256 hashes of files, or of parts of files, as hex strings.
+ *
+ * @author <a href="mailto:kabir.khan@jboss.com">Kabir Khan</a>
+ */
+class Sha256 {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    static String hash(Path file) throws IOException {
+        MessageDigest digest = createDigest();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream in = Files.newInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Hashes part of a file. This uses positional reads, so the same channel can be used by several threads.
+     */
+    static String hash(FileChannel channel, long position, long size) throws IOException {
+        MessageDigest digest = createDigest();
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        long read = 0;
+        while (read < size) {
+            buffer.clear();
+            buffer.limit((int) Math.min(BUFFER_SIZE, size - read));
+            int count = channel.read(buffer, position + read);
+            if (count < 0) {
+                // The file is shorter than expected, so this can't match
+                break;
+            }
+            buffer.flip();
+            digest.update(buffer);
+            read += count;
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Hashes the remaining contents of the buffers, one after the other. The buffers' positions are not changed.
+     */
+    static String hash(List<? extends ByteBuffer> buffers) {
+        MessageDigest digest = createDigest();
+        for (ByteBuffer buffer : buffers) {
+            digest.update(buffer.duplicate());
+        }
+        return toHex(digest.digest());
+    }
+
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+}
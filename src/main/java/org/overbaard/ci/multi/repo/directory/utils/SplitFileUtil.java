@@ -1,7 +1,9 @@
 package org.overbaard.ci.multi.repo.directory.utils;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
@@ -9,9 +11,22 @@ import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.PosixFilePermission;
 import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
+ * Splits files which are too large to push to GitHub into parts in a split directory, and merges them again.
+ * The split directory contains the parts, a {@link SplitManifest} listing the parts in order along with their
+ * sizes and hashes, and a script to reassemble the file without this tool.
+ *
  * @author <a href="mailto:kabir.khan@jboss.com">Kabir Khan</a>
  */
 public class SplitFileUtil {
@@ -19,7 +34,85 @@ public class SplitFileUtil {
 
     // GitHub's max file size is 100Mb. It recommends max 50.
     // Set it to 49 just to have some leeway
-    private static final long MAX_SIZE_BYTES = 49 * 1024 * 1024;
+    static final int DEFAULT_MAX_SIZE_MB = 49;
+    private static final int GITHUB_MAX_SIZE_MB = 100;
+
+    // Shared by all instances so that splitting or merging from several threads at once does not
+    // multiply the number of threads doing the IO
+    private static final ExecutorService PART_EXECUTOR = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(),
+            r -> {
+                Thread thread = new Thread(r, "split-file-part");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    // transferFrom() can end up as a copy loop with a small buffer on some file systems, while copying into a
+    // memory mapping of the merged file always reads straight into its pages. Running SplitMergeBenchmark (in the
+    // tests) from 4MB to 256MB on a single CPU Linux machine, the mapping was 5-15% slower up to 16MB, and within
+    // a few percent either way from 32MB up. So use transferFrom() below this size, where setting up the mappings
+    // costs more than it saves
+    static final long MAPPED_MERGE_MIN_SIZE = 64L * 1024 * 1024;
+    // Java 8 has no way to unmap a MappedByteBuffer, so the mappings of a merged file stay until they are garbage
+    // collected. On Windows a file with a live mapping can't be deleted or renamed, or have its directory renamed,
+    // which the overlay does with its staging directories. So never choose the mapping on Windows
+    private static final boolean WINDOWS = System.getProperty("os.name", "").toLowerCase(Locale.ENGLISH).startsWith("windows");
+    // The mappings are done in windows, to limit how much address space is used at once
+    private static final int MAP_WINDOW_SIZE = 32 * 1024 * 1024;
+
+    private final long maxSizeBytes;
+    private final ContentDefinedChunker chunker;
+
+    public SplitFileUtil() {
+        this(DEFAULT_MAX_SIZE_MB);
+    }
+
+    /**
+     * @param maxSizeMb the size of the parts files get split into
+     */
+    public SplitFileUtil(int maxSizeMb) {
+        this(maxSizeMb, false);
+    }
+
+    /**
+     * @param maxSizeMb the maximum size of the parts files get split into
+     * @param contentDefinedChunking whether to split where the {@link ContentDefinedChunker} finds boundaries
+     *                               rather than at fixed offsets
+     */
+    public SplitFileUtil(int maxSizeMb, boolean contentDefinedChunking) {
+        if (maxSizeMb < 1 || maxSizeMb >= GITHUB_MAX_SIZE_MB) {
+            throw new IllegalStateException("The split size must be between 1 and " + (GITHUB_MAX_SIZE_MB - 1) + "MB: " + maxSizeMb);
+        }
+        this.maxSizeBytes = maxSizeMb * 1024L * 1024L;
+        this.chunker = contentDefinedChunking ? new ContentDefinedChunker(maxSizeBytes) : null;
+    }
+
+    /**
+     * Parses the value of a command argument setting the split size.
+     */
+    static int parseSplitSizeArg(String arg, String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalStateException(arg + " '" + value + "' is not an integer");
+        }
+    }
+
+    /**
+     * Whether a file of the given size is too large to push, and so needs splitting.
+     */
+    boolean needsSplitting(long size) {
+        return size > maxSizeBytes;
+    }
+
+    static Path getSplitFilesDirectory(Path file) {
+        return file.getParent().resolve(file.getFileName().toString() + SPLIT_FILE_DIRECTORY_SUFFIX);
+    }
+
+    static Path getFileFromSplitFilesDirectory(Path splitDir) {
+        String filename = splitDir.getFileName().toString();
+        return splitDir.getParent().resolve(filename.substring(0, filename.indexOf(SPLIT_FILE_DIRECTORY_SUFFIX)));
+    }
 
     static boolean isSplitFilesDirectory(Path dir) {
         if (Files.isDirectory(dir) && dir.getFileName().toString().endsWith(SplitFileUtil.SPLIT_FILE_DIRECTORY_SUFFIX)) {
@@ -31,101 +124,276 @@ public class SplitFileUtil {
     void mergeFiles(Path splitDir) throws IOException {
         String baseFileName = getFileNameFromSplitDirName(splitDir);
         Path mergedTargetFile = splitDir.getParent().resolve(baseFileName);
+        mergeFiles(splitDir, mergedTargetFile, true, null);
+    }
+
+    /**
+     * Merges the parts in the split directory into the target file, leaving the split directory untouched.
+     */
+    void mergeFilesTo(Path splitDir, Path mergedTargetFile) throws IOException {
+        mergeFiles(splitDir, mergedTargetFile, false, null);
+    }
+
+    /**
+     * Like {@link #mergeFilesTo(Path, Path)}, but choosing whether the parts are copied into a memory mapping of
+     * the merged file or with {@link FileChannel#transferFrom}, rather than choosing by the size of the file.
+     * If mapped, the merged file stays mapped until the mappings are garbage collected.
+     */
+    void mergeFilesTo(Path splitDir, Path mergedTargetFile, boolean mapped) throws IOException {
+        mergeFiles(splitDir, mergedTargetFile, false, mapped);
+    }
+
+    /**
+     * Gets the parts in the split directory, in the order they should be merged.
+     */
+    List<Path> getParts(Path splitDir) throws IOException {
+        List<Path> parts = new ArrayList<>();
+        for (SplitManifest.Part part : SplitManifest.read(splitDir).getParts()) {
+            parts.add(splitDir.resolve(part.getName()));
+        }
+        return parts;
+    }
+
+    /**
+     * Merges the parts into the target file. Each part is checked against the size and hash in the manifest once
+     * it has been written, so a corrupted or truncated part is reported here rather than when the merged file is
+     * used. Once all the parts are merged, the whole file is checked against the hash in the manifest, which
+     * catches parts merged in the wrong order or at the wrong offsets. If the target file already exists, the
+     * parts whose contents it already has are skipped, so a merge which was interrupted part way through only
+     * merges the remaining parts when run again.
+     *
+     * @param mapped whether to copy the parts into a memory mapping of the target file. If {@code null} this is
+     *               decided by the size of the file
+     */
+    private void mergeFiles(Path splitDir, Path mergedTargetFile, boolean deleteSplitDir, Boolean mapped) throws IOException {
         System.out.println("Merging split dir " + splitDir + " to " + mergedTargetFile);
 
+        SplitManifest manifest = SplitManifest.read(splitDir);
+        List<SplitManifest.Part> parts = manifest.getParts();
+        long[] offsets = new long[parts.size()];
+        long totalSize = 0;
+        for (int i = 0; i < parts.size(); i++) {
+            offsets[i] = totalSize;
+            totalSize += manifest.isVerifiable() ? parts.get(i).getSize() : Files.size(splitDir.resolve(parts.get(i).getName()));
+        }
+        if (manifest.isVerifiable() && totalSize != manifest.getSize()) {
+            throw new IllegalStateException("The part sizes in " + splitDir + " add up to " + totalSize +
+                    " bytes, but the file was " + manifest.getSize() + " bytes");
+        }
+        final boolean resume = manifest.isVerifiable() && Files.exists(mergedTargetFile);
+        final boolean useMapping = mapped != null ? mapped : !WINDOWS && totalSize >= MAPPED_MERGE_MIN_SIZE;
+
         try (RandomAccessFile toFile = new RandomAccessFile(mergedTargetFile.toFile(), "rw");
              FileChannel toChannel = toFile.getChannel()) {
+            // Size the file up front. Positional transfers don't write past the end of the file, and
+            // this also gets rid of anything left over from a longer file
+            toFile.setLength(totalSize);
 
-            int position = 0;
+            List<Callable<Void>> tasks = new ArrayList<>();
+            for (int i = 0; i < parts.size(); i++) {
+                final SplitManifest.Part part = parts.get(i);
+                final Path partFile = splitDir.resolve(part.getName());
+                final long offset = offsets[i];
+                tasks.add(() -> {
+                    if (resume && part.getHash().equals(Sha256.hash(toChannel, offset, part.getSize()))) {
+                        System.out.println("Already merged " + partFile);
+                    } else {
+                        mergePart(partFile, part, toChannel, offset, manifest.isVerifiable(), useMapping);
+                    }
+                    if (deleteSplitDir) {
+                        // Only the parts still to be merged are needed to resume
+                        Files.deleteIfExists(partFile);
+                    }
+                    return null;
+                });
+            }
+            runAll(tasks);
 
-            for (int index = 0 ; ; index++) {
-                Path path = splitDir.resolve(createFileNameForIndex(index));
-                if (!Files.exists(path)) {
-                    break;
-                }
+            if (manifest.isVerifiable() && !manifest.getHash().equals(Sha256.hash(toChannel, 0, totalSize))) {
+                throw new IllegalStateException("The file merged from " + splitDir + " does not match the hash in " +
+                        splitDir.resolve(SplitManifest.FILE_NAME));
+            }
+        }
+
+        if (deleteSplitDir) {
+            Files.walkFileTree(splitDir, new DeleteFilesVisitor());
+        }
+    }
 
-                try (RandomAccessFile part = new RandomAccessFile(path.toFile(), "r");
-                     FileChannel fromChannel = part.getChannel()) {
-                    long size = Files.size(path);
-                    toChannel.transferFrom(fromChannel, position, size);
-                    Files.delete(path);
-                    position += size;
+    private void mergePart(Path partFile, SplitManifest.Part part, FileChannel toChannel, long offset,
+                           boolean verify, boolean mapped) throws IOException {
+        if (!Files.exists(partFile)) {
+            throw new IllegalStateException("Missing part " + partFile);
+        }
+        String writtenHash;
+        try (FileChannel fromChannel = FileChannel.open(partFile, StandardOpenOption.READ)) {
+            long size = fromChannel.size();
+            if (verify && size != part.getSize()) {
+                throw new IllegalStateException("Part " + partFile + " is " + size + " bytes, but should be " + part.getSize() + " bytes");
+            }
+            if (mapped) {
+                writtenHash = copyIntoMapping(fromChannel, toChannel, offset, size, verify);
+            } else {
+                long transferred = 0;
+                while (transferred < size) {
+                    transferred += toChannel.transferFrom(fromChannel, offset + transferred, size - transferred);
                 }
+                writtenHash = verify ? Sha256.hash(toChannel, offset, size) : null;
             }
+        }
+        // Check what was written rather than the part itself, which also catches anything going wrong in the transfer
+        if (verify && !part.getHash().equals(writtenHash)) {
+            throw new IllegalStateException("Part " + partFile + " does not match the hash in " +
+                    partFile.resolveSibling(SplitManifest.FILE_NAME) + ". It was probably corrupted when pushed");
+        }
+    }
 
-            Files.walkFileTree(splitDir, new CopyDirectoryVisitor.DeleteFilesVisitor());
+    /**
+     * Reads the part straight into windows mapping its range of the target file. The windows are not unmapped
+     * here, since there is no API for it in Java 8. They go away when garbage collected.
+     *
+     * @return the hash of what was written if {@code hash} is set, otherwise {@code null}
+     */
+    private String copyIntoMapping(FileChannel fromChannel, FileChannel toChannel, long offset, long size, boolean hash) throws IOException {
+        List<MappedByteBuffer> windows = new ArrayList<>();
+        for (long copied = 0; copied < size; ) {
+            int windowSize = (int) Math.min(MAP_WINDOW_SIZE, size - copied);
+            MappedByteBuffer window = toChannel.map(FileChannel.MapMode.READ_WRITE, offset + copied, windowSize);
+            while (window.hasRemaining()) {
+                if (fromChannel.read(window, copied + window.position()) < 0) {
+                    throw new IllegalStateException("Part is shorter than " + size + " bytes");
+                }
+            }
+            window.flip();
+            if (hash) {
+                // Hash the mapped contents, since the file contents are not guaranteed to reflect them until unmapped
+                windows.add(window);
+            }
+            copied += windowSize;
         }
+        return hash ? Sha256.hash(windows) : null;
     }
 
     void splitFile(Path file) throws IOException {
         long sourceSize = Files.size(file);
-        long bytesPerSplit = MAX_SIZE_BYTES;
-        if (sourceSize > bytesPerSplit) {
-            long numSplits = sourceSize / bytesPerSplit;
-            long remainingBytes = sourceSize % bytesPerSplit;
-
-            Path splitDir = file.getParent().resolve(file.getFileName().toString() + SPLIT_FILE_DIRECTORY_SUFFIX);
-            System.out.println("Splitting " + file + " to " + splitDir);
-            if (Files.exists(splitDir)) {
-                Files.walkFileTree(splitDir.toAbsolutePath(), new CopyDirectoryVisitor.DeleteFilesVisitor());
-            }
-            Files.createDirectories(splitDir);
-            createReassembleScript(splitDir);
+        if (needsSplitting(sourceSize)) {
+            split(file, sourceSize, getSplitFilesDirectory(file));
+            Files.delete(file);
+        }
+    }
 
-            try (RandomAccessFile sourceFile = new RandomAccessFile(file.toFile(), "r");
-                 FileChannel sourceChannel = sourceFile.getChannel()) {
+    /**
+     * Splits the source file straight into the split directory of the target file, without copying it to the
+     * target first. The source file is left as it is, and any existing target file is removed.
+     */
+    void splitFileTo(Path sourceFile, Path targetFile) throws IOException {
+        Files.deleteIfExists(targetFile);
+        split(sourceFile, Files.size(sourceFile), getSplitFilesDirectory(targetFile));
+    }
 
+    private void split(Path file, long sourceSize, Path splitDir) throws IOException {
+        System.out.println("Splitting " + file + " to " + splitDir);
+        if (Files.exists(splitDir)) {
+            Files.walkFileTree(splitDir.toAbsolutePath(), new DeleteFilesVisitor());
+        }
+        Files.createDirectories(splitDir);
+        createReassembleScript(splitDir);
 
-                int position = 0;
-                long sourcePosition = 0;
-                for (; position < numSplits; position++) {
-                    writePartToFile(splitDir, bytesPerSplit, position, sourceChannel, sourcePosition);
-                    sourcePosition += bytesPerSplit;
-                }
+        SplitManifest.Part[] parts;
+        String[] fileHash = new String[1];
+        try (FileChannel sourceChannel = FileChannel.open(file, StandardOpenOption.READ)) {
+            List<Long> partSizes = getPartSizes(sourceChannel, sourceSize);
+            int width = Math.max(2, String.valueOf(partSizes.size() - 1).length());
+            parts = new SplitManifest.Part[partSizes.size()];
 
-                if (remainingBytes > 0) {
-                    writePartToFile(splitDir, remainingBytes, position, sourceChannel, sourcePosition);
-                }
+            List<Callable<Void>> tasks = new ArrayList<>();
+            // The whole file takes the longest to hash, so start on it first
+            tasks.add(() -> {
+                fileHash[0] = Sha256.hash(sourceChannel, 0, sourceSize);
+                return null;
+            });
+            long sourcePosition = 0;
+            for (int index = 0; index < partSizes.size(); index++) {
+                final int partIndex = index;
+                final String partName = createFileNameForIndex(index, width);
+                final long position = sourcePosition;
+                final long size = partSizes.get(index);
+                tasks.add(() -> {
+                    writePartToFile(splitDir.resolve(partName), sourceChannel, position, size);
+                    parts[partIndex] = new SplitManifest.Part(partName, size, Sha256.hash(sourceChannel, position, size));
+                    return null;
+                });
+                sourcePosition += size;
             }
+            runAll(tasks);
+        }
+        new SplitManifest(Arrays.asList(parts), sourceSize, fileHash[0]).write(splitDir);
+    }
 
-            Files.delete(file);
+    private List<Long> getPartSizes(FileChannel sourceChannel, long sourceSize) throws IOException {
+        if (chunker != null) {
+            return chunker.getChunkSizes(sourceChannel);
+        }
+        List<Long> sizes = new ArrayList<>();
+        for (long position = 0; position < sourceSize; position += maxSizeBytes) {
+            sizes.add(Math.min(maxSizeBytes, sourceSize - position));
         }
+        return sizes;
     }
 
-    private Path writePartToFile(Path splitDir, long byteSize, int index, FileChannel sourceChannel, long sourcePosition) throws IOException {
-        Path fileName = splitDir.resolve(createFileNameForIndex(index));
-        try (RandomAccessFile toFile = new RandomAccessFile(fileName.toFile(), "rw");
-             FileChannel toChannel = toFile.getChannel()) {
+    private void writePartToFile(Path part, FileChannel sourceChannel, long sourcePosition, long byteSize) throws IOException {
+        // Positional transfers don't use the channel's position, so several parts can be written at once
+        try (FileChannel toChannel = FileChannel.open(part,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long transferred = 0;
+            while (transferred < byteSize) {
+                transferred += sourceChannel.transferTo(sourcePosition + transferred, byteSize - transferred, toChannel);
+            }
+        }
+    }
 
-            sourceChannel.position(sourcePosition);
-            toChannel.transferFrom(sourceChannel, 0, byteSize);
+    /**
+     * Runs the part tasks in parallel, and waits for them all to complete.
+     */
+    private static void runAll(List<Callable<Void>> tasks) throws IOException {
+        try {
+            for (Future<Void> future : PART_EXECUTOR.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
         }
-        return fileName;
     }
 
-    private String createFileNameForIndex(int i) {
-        // If we change the length from 2 digits we also need to change the reassemble script
+    static String createFileNameForIndex(int i, int width) {
+        // All the parts of a file have the same width, so they sort in the right order for the reassemble script
         StringBuilder sb = new StringBuilder("xx.");
-        if (i < 10) {
+        String index = String.valueOf(i);
+        for (int pad = index.length(); pad < width; pad++) {
             sb.append("0");
         }
-        if (i >= 100) {
-            // Very unlikely so I am not going to try to guard against it here
-            // (9GB should be more than enough, considering the size of the VMs)
-            throw new IllegalStateException("File is way too large!");
-        }
-        sb.append(i);
+        sb.append(index);
         return sb.toString();
     }
 
     private void createReassembleScript(Path dir) throws IOException {
         Path reassembleInstructions = dir.resolve("reassemble.sh");
         StringBuilder sb = new StringBuilder();
-        sb.append("#!/bin/sh");
+        sb.append("#!/bin/sh\n");
         sb.append("# The file has been split due to its large size. Run this script to reassemble it.\n");
-        // Suffix length set by the format method is 2
         sb.append("WORKING_DIR=$(dirname $0)\n");
-        sb.append("cat ${WORKING_DIR}/xx.?? > ${WORKING_DIR}/" + getFileNameFromSplitDirName(dir) + "\n");
+        // The part names all have the same width, so the glob sorts them correctly
+        sb.append("cat ${WORKING_DIR}/xx.* > ${WORKING_DIR}/" + getFileNameFromSplitDirName(dir) + "\n");
         sb.append("echo Reassembled ${WORKING_DIR}/" + getFileNameFromSplitDirName(dir) + "\n");
         Files.createFile(reassembleInstructions);
         Files.write(reassembleInstructions, sb.toString().getBytes(StandardCharsets.UTF_8), StandardOpenOption.WRITE);
@@ -3,6 +3,8 @@ package org.overbaard.ci.multi.repo.directory.utils;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.overbaard.ci.multi.repo.ToolCommand;
 
@@ -10,20 +12,41 @@ import org.overbaard.ci.multi.repo.ToolCommand;
  * @author <a href="mailto:kabir.khan@jboss.com">Kabir Khan</a>
  */
 public class SplitLargeFilesInDirectory {
+    public static final String ARG_SPLIT_SIZE_MB = "--split-size-mb";
+    public static final String ARG_CONTENT_DEFINED_CHUNKING = "--content-defined-chunking";
 
     private final LargeFileAction largeFileAction;
     private final Path dir;
+    private final SplitFileUtil splitFileUtil;
 
     public SplitLargeFilesInDirectory(LargeFileAction largeFileAction, Path dir) {
+        this(largeFileAction, dir, new SplitFileUtil());
+    }
+
+    SplitLargeFilesInDirectory(LargeFileAction largeFileAction, Path dir, SplitFileUtil splitFileUtil) {
         this.largeFileAction = largeFileAction;
         this.dir = dir;
+        this.splitFileUtil = splitFileUtil;
     }
 
     private static void processDir(LargeFileAction largeFileAction, String[] args) throws Exception {
-        if (args.length != 1) {
-            throw new IllegalStateException("Need the following args: <root directory to split files in>");
+        int splitSizeMb = SplitFileUtil.DEFAULT_MAX_SIZE_MB;
+        boolean contentDefinedChunking = false;
+        List<String> paths = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith(ARG_SPLIT_SIZE_MB + "=")) {
+                splitSizeMb = SplitFileUtil.parseSplitSizeArg(ARG_SPLIT_SIZE_MB, arg.substring(ARG_SPLIT_SIZE_MB.length() + 1));
+            } else if (arg.equals(ARG_CONTENT_DEFINED_CHUNKING)) {
+                contentDefinedChunking = true;
+            } else {
+                paths.add(arg);
+            }
+        }
+        if (paths.size() != 1) {
+            throw new IllegalStateException("Need the following args: [" + ARG_SPLIT_SIZE_MB + "=<n>] " +
+                    "[" + ARG_CONTENT_DEFINED_CHUNKING + "] <root directory to split files in>");
         }
-        Path path = Paths.get(args[0]);
+        Path path = Paths.get(paths.get(0));
         if (!Files.exists(path)) {
             throw new IllegalStateException("Indicated root directory does not exist: " + path);
         }
@@ -31,12 +54,13 @@ public class SplitLargeFilesInDirectory {
             throw new IllegalStateException("Not a directory: " + path);
         }
 
-        SplitLargeFilesInDirectory splitter = new SplitLargeFilesInDirectory(largeFileAction, path.toAbsolutePath());
+        SplitLargeFilesInDirectory splitter = new SplitLargeFilesInDirectory(largeFileAction, path.toAbsolutePath(),
+                new SplitFileUtil(splitSizeMb, contentDefinedChunking));
         splitter.processDir();
     }
 
     private void processDir() throws Exception {
-        Files.walkFileTree(dir, new IterateDirectoryVisitor(largeFileAction));
+        IterateDirectoryVisitor.processDirectory(dir, largeFileAction, splitFileUtil);
     }
 
 
@@ -0,0 +1,128 @@
+package org.overbaard.ci.multi.repo.directory.utils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The list of parts in a split directory, in the order they should be merged. It contains a line for each part
+ * <pre>
+ * part &lt;name&gt; &lt;size&gt; &lt;sha-256&gt;
+ * </pre>
+ * followed by a line for the whole file
+ * <pre>
+ * file &lt;size&gt; &lt;sha-256&gt;
+ * </pre>
+ * Split directories written before the manifest was added have two digit part names. For those the sizes and
+ * hashes are not known, so nothing can be verified.
+ *
+ * @author <a href="mailto:kabir.khan@jboss.com">Kabir Khan</a>
+ */
+class SplitManifest {
+    static final String FILE_NAME = "split-manifest.txt";
+
+    private final List<Part> parts;
+    private final long size;
+    private final String hash;
+
+    SplitManifest(List<Part> parts, long size, String hash) {
+        this.parts = Collections.unmodifiableList(parts);
+        this.size = size;
+        this.hash = hash;
+    }
+
+    List<Part> getParts() {
+        return parts;
+    }
+
+    /**
+     * @return whether the sizes and hashes are known
+     */
+    boolean isVerifiable() {
+        return hash != null;
+    }
+
+    long getSize() {
+        return size;
+    }
+
+    String getHash() {
+        return hash;
+    }
+
+    void write(Path splitDir) throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (Part part : parts) {
+            lines.add("part " + part.name + " " + part.size + " " + part.hash);
+        }
+        lines.add("file " + size + " " + hash);
+        Files.write(splitDir.resolve(FILE_NAME), lines, StandardCharsets.UTF_8);
+    }
+
+    static SplitManifest read(Path splitDir) throws IOException {
+        Path manifest = splitDir.resolve(FILE_NAME);
+        List<Part> parts = new ArrayList<>();
+        long size = -1;
+        String hash = null;
+        if (!Files.exists(manifest)) {
+            // Split before the manifest was added, which means two digit part names
+            for (int index = 0; Files.exists(splitDir.resolve(SplitFileUtil.createFileNameForIndex(index, 2))); index++) {
+                parts.add(new Part(SplitFileUtil.createFileNameForIndex(index, 2), -1, null));
+            }
+        } else {
+            for (String line : Files.readAllLines(manifest, StandardCharsets.UTF_8)) {
+                String[] tokens = line.trim().split("\\s+");
+                if (tokens[0].isEmpty()) {
+                    continue;
+                }
+                try {
+                    if (tokens.length == 4 && tokens[0].equals("part")) {
+                        parts.add(new Part(tokens[1], Long.parseLong(tokens[2]), tokens[3]));
+                    } else if (tokens.length == 3 && tokens[0].equals("file")) {
+                        size = Long.parseLong(tokens[1]);
+                        hash = tokens[2];
+                    } else {
+                        throw new IllegalStateException("Bad line in " + manifest + ": " + line);
+                    }
+                } catch (NumberFormatException e) {
+                    throw new IllegalStateException("Bad line in " + manifest + ": " + line);
+                }
+            }
+            if (hash == null) {
+                throw new IllegalStateException("No file line in " + manifest);
+            }
+        }
+        if (parts.isEmpty()) {
+            throw new IllegalStateException("No parts found in " + splitDir);
+        }
+        return new SplitManifest(parts, size, hash);
+    }
+
+    static class Part {
+        private final String name;
+        private final long size;
+        private final String hash;
+
+        Part(String name, long size, String hash) {
+            this.name = name;
+            this.size = size;
+            this.hash = hash;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        long getSize() {
+            return size;
+        }
+
+        String getHash() {
+            return hash;
+        }
+    }
+}
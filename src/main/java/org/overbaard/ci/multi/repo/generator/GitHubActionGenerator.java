@@ -19,12 +19,14 @@ import java.util.Set;
 import org.overbaard.ci.multi.repo.Main;
 import org.overbaard.ci.multi.repo.ToolCommand;
 import org.overbaard.ci.multi.repo.Usage;
+import org.overbaard.ci.multi.repo.config.BackupFilterConfig;
 import org.overbaard.ci.multi.repo.config.component.BaseComponentJobConfig;
 import org.overbaard.ci.multi.repo.config.component.ComponentEndJobConfig;
 import org.overbaard.ci.multi.repo.config.component.ComponentJobsConfig;
 import org.overbaard.ci.multi.repo.config.component.ComponentJobsConfigParser;
 import org.overbaard.ci.multi.repo.config.component.ComponentJobConfig;
 import org.overbaard.ci.multi.repo.config.component.JobRunElementConfig;
+import org.overbaard.ci.multi.repo.config.repo.CopyLogsConfig;
 import org.overbaard.ci.multi.repo.config.repo.RepoConfig;
 import org.overbaard.ci.multi.repo.config.repo.RepoConfigParser;
 import org.overbaard.ci.multi.repo.config.trigger.Component;
@@ -74,6 +76,8 @@ public class GitHubActionGenerator {
     static final Path COMPONENT_JOBS_DIR = Paths.get(".repo-config/component-jobs");
     static final String REPO_BACKUPS = "repo-backups";
     static final Path MAVEN_REPO_BACKUPS_ROOT = Paths.get(CI_TOOLS_CHECKOUT_FOLDER + "/" + REPO_BACKUPS);
+    static final String REPO_OBJECTS = "repo-objects";
+    static final Path MAVEN_REPO_OBJECT_STORE = Paths.get(CI_TOOLS_CHECKOUT_FOLDER + "/" + REPO_OBJECTS);
     final static Path MAVEN_REPO;
     public static final String TOOL_JAR_NAME = "multi-repo-ci-tool.jar";
     public static final String CANCEL_PREVIOUS_RUNS_JOB_NAME = "cancel-previous-runs";
@@ -94,24 +98,30 @@ public class GitHubActionGenerator {
     private final Map<String, String> buildJobNamesByComponent = new LinkedHashMap<>();
     private final Path workflowFile;
     private final Path yamlConfig;
+    private final Path repoDir;
     private final String branchName;
     private final int issueNumber;
     private String jobLogsArtifactName;
     private boolean hasDebugComponents;
 
-    private GitHubActionGenerator(Path workflowFile, Path yamlConfig, String branchName, int issueNumber) {
+    private GitHubActionGenerator(Path workflowFile, Path yamlConfig, Path repoDir, String branchName, int issueNumber) {
         this.workflowFile = workflowFile;
         this.yamlConfig = yamlConfig;
+        this.repoDir = repoDir;
         this.branchName = branchName;
         this.issueNumber = issueNumber;
     }
 
     static void generate(String[] args) throws Exception {
-        GitHubActionGenerator generator = create(args);
+        GitHubActionGenerator generator = create(args, Paths.get(""));
         generator.generate();
     }
 
-    private static GitHubActionGenerator create(String[] args) throws Exception {
+    /**
+     * Creates the generator from the command arguments, reading the {@code .repo-config} directory in
+     * {@code repoDir}. The command uses the current directory.
+     */
+    static GitHubActionGenerator create(String[] args, Path repoDir) throws Exception {
         System.out.println("Starting cross-component job generation");
         Path yamlConfig = null;
         String branchName = null;
@@ -176,7 +186,7 @@ public class GitHubActionGenerator {
         }
 
         Path workflowFile = workflowDir.resolve("ci-" + issueNumberString + ".yml");
-        return new GitHubActionGenerator(workflowFile, yamlConfig, branchName, issueNumber);
+        return new GitHubActionGenerator(workflowFile, yamlConfig, repoDir, branchName, issueNumber);
     }
 
     private static void usage() throws URISyntaxException {
@@ -199,8 +209,8 @@ public class GitHubActionGenerator {
         System.out.print(usage.usage(headline));
     }
 
-    private void generate() throws Exception {
-        RepoConfig repoConfig = RepoConfigParser.create(REPO_CONFIG_FILE).parse();
+    void generate() throws Exception {
+        RepoConfig repoConfig = RepoConfigParser.create(repoDir.resolve(REPO_CONFIG_FILE)).parse();
         TriggerConfig triggerConfig = TriggerConfigParser.create(yamlConfig).parse();
         System.out.println("Wil create workflow file at " + workflowFile.toAbsolutePath());
 
@@ -214,6 +224,14 @@ public class GitHubActionGenerator {
             setupCleanupJob(triggerConfig);
         }
 
+        // Only keep the needs which are not implied by other needs, so jobs start once their real predecessors are done
+        new JobDependencyGraph(jobs).reduceNeeds();
+
+        // Run adjacent tool commands in one JVM
+        for (Object job : jobs.values()) {
+            ToolCommandStep.pipelineAdjacentSteps(job);
+        }
+
         DumperOptions options = new DumperOptions();
         options.setIndent(2);
         options.setPrettyFlow(true);
@@ -259,10 +277,10 @@ public class GitHubActionGenerator {
         jobs.put(CANCEL_PREVIOUS_RUNS_JOB_NAME, new CancelPreviousRunsJobBuilder(branchName).build());
 
         for (Component component : triggerConfig.getComponents()) {
-            Path componentJobsFile = COMPONENT_JOBS_DIR.resolve(component.getName() + ".yml");
+            Path componentJobsFile = repoDir.resolve(COMPONENT_JOBS_DIR).resolve(component.getName() + ".yml");
             if (!Files.exists(componentJobsFile)) {
                 System.out.println("No " + componentJobsFile + " found");
-                componentJobsFile = COMPONENT_JOBS_DIR.resolve(component.getName() + ".yaml");
+                componentJobsFile = repoDir.resolve(COMPONENT_JOBS_DIR).resolve(component.getName() + ".yaml");
             }
             if (!Files.exists(componentJobsFile)) {
                 System.out.println("No " + componentJobsFile + " found. Setting up default job for component: " + component.getName());
@@ -396,10 +414,25 @@ public class GitHubActionGenerator {
                             .setRebase()
                             .build());
 
-            steps.add(
+            RunMultiRepoCiToolCommandStepBuilder overlay =
                     new RunMultiRepoCiToolCommandStepBuilder()
                             .setJar(CI_TOOLS_CHECKOUT_FOLDER + "/" + TOOL_JAR_NAME)
-                            .setCommand(OverlayBackedUpMavenArtifacts.Command.NAME)
+                            .setClassDataSharing(context.repoConfig.isClassDataSharing())
+                            .setCommand(OverlayBackedUpMavenArtifacts.Command.NAME);
+            if (context.repoConfig.isObjectStore()) {
+                overlay.addArgs(OverlayBackedUpMavenArtifacts.ARG_OBJECT_STORE + "=" + MAVEN_REPO_OBJECT_STORE.toString());
+            }
+            if (!context.isBuildJob()) {
+                // The linked files share their contents with the ci tools checkout. Build jobs commit everything
+                // in the checkout, so play it safe and copy there in case the build modifies the files in place
+                overlay.addArgs(OverlayBackedUpMavenArtifacts.ARG_LINK);
+            }
+            if (context.repoConfig.isLazyOverlay()) {
+                // Only overlay the backed up modules the checked out project needs
+                overlay.addArgs(OverlayBackedUpMavenArtifacts.ARG_PROJECT + "=" + Paths.get("pom.xml").toAbsolutePath().toString());
+            }
+            steps.add(
+                    overlay
                             .addArgs(MAVEN_REPO.toString(), MAVEN_REPO_BACKUPS_ROOT.toString())
                             .build());
         }
@@ -407,6 +440,8 @@ public class GitHubActionGenerator {
         if (context.isBuildJob()) {
             steps.add(
                     new GrabProjectVersionStepBuilder()
+                            .setJar(CI_TOOLS_CHECKOUT_FOLDER + "/" + TOOL_JAR_NAME)
+                            .setClassDataSharing(context.repoConfig.isClassDataSharing())
                             .setComponentName(component.getName())
                             .setEnvVarName(getInternalVersionEnvVarName(component.getName()))
                             .build());
@@ -429,22 +464,17 @@ public class GitHubActionGenerator {
             backupMavenArtifactsProducedByBuild(context, steps);
         }
 
-        // Copy across the build artifacts to the folder and upload the 'root' folder
+        // Write the build artifacts straight into the job's zip in the folder and upload the 'root' folder
         final String projectLogsDir = ".project-build-logs";
-        final String jobLogsDir = projectLogsDir + "/" + jobName;
+        final String jobLogsZip = projectLogsDir + "/" + jobName + ".zip";
         steps.add(
                 new RunMultiRepoCiToolCommandStepBuilder()
                         .setJar(CI_TOOLS_CHECKOUT_FOLDER + "/" + TOOL_JAR_NAME)
+                        .setClassDataSharing(context.repoConfig.isClassDataSharing())
                         .setCommand(CopyLogArtifacts.Command.NAME)
-                        .addArgs(".", jobLogsDir)
-                        .setIfCondition(IfCondition.FAILURE)
-                        .build());
-        steps.add(
-                new ZipFolderStepBuilder()
+                        .addArgs(createCopyLogsArgs(context.repoConfig.getCopyLogs()))
+                        .addArgs(CopyLogArtifacts.ARG_ZIP, ".", jobLogsZip)
                         .setIfCondition(IfCondition.FAILURE)
-                        .setContainingDirectory(projectLogsDir)
-                        .setChildDirectoryToZip(jobName)
-                        .removeDirectory()
                         .build());
         steps.add(
                 new UploadArtifactStepBuilder()
@@ -463,12 +493,26 @@ public class GitHubActionGenerator {
         Path rootPom = Paths.get("pom.xml");
         Path backupPath = MAVEN_REPO_BACKUPS_ROOT.resolve(context.component.getName());
 
+        // The component job file can override the filter lists from the repository config
+        BackupFilterConfig backupFilter = context.repoConfig.getBackupFilter();
+        ComponentJobsConfig componentJobsConfig = componentJobsConfigs.get(context.getComponent().getName());
+        if (componentJobsConfig != null) {
+            backupFilter = backupFilter.override(componentJobsConfig.getBackupFilter());
+        }
+
         // Back up the parts of the maven repo we built
         steps.add(
                 new RunMultiRepoCiToolCommandStepBuilder()
                         .setJar(CI_TOOLS_CHECKOUT_FOLDER + "/" + TOOL_JAR_NAME)
+                        .setClassDataSharing(context.repoConfig.isClassDataSharing())
                         .setCommand(BackupMavenArtifacts.Command.NAME)
-                        .addArgs(rootPom.toAbsolutePath().toString(), MAVEN_REPO.toString(), backupPath.toAbsolutePath().toString())
+                        .addArgs(createObjectStoreArgs(context.repoConfig))
+                        .addArgs(createBackupFilterArgs(backupFilter))
+                        .addArgs(createSplitArgs(context.repoConfig))
+                        .addArgs(
+                                rootPom.toAbsolutePath().toString(),
+                                MAVEN_REPO.toString(),
+                                backupPath.toAbsolutePath().toString())
                         .setIfCondition(IfCondition.SUCCESS)
                         .build());
 
@@ -543,6 +587,7 @@ public class GitHubActionGenerator {
         steps.add(
                 new RunMultiRepoCiToolCommandStepBuilder()
                         .setJar(TOOL_JAR_NAME)
+                        .setClassDataSharing(repoConfig.isClassDataSharing())
                         .setCommand(SplitLargeFilesInDirectory.MergeCommand.NAME)
                         .addArgs("${" + OB_ARTIFACTS_DIRECTORY_VAR_NAME + "}")
                         .build());
@@ -557,7 +602,9 @@ public class GitHubActionGenerator {
         steps.add(
                 new RunMultiRepoCiToolCommandStepBuilder()
                         .setJar(TOOL_JAR_NAME)
+                        .setClassDataSharing(repoConfig.isClassDataSharing())
                         .setCommand(SplitLargeFilesInDirectory.SplitCommand.NAME)
+                        .addArgs(createSplitArgs(repoConfig))
                         .addArgs("${" + OB_ARTIFACTS_DIRECTORY_VAR_NAME + "}")
                         .build());
 
@@ -713,6 +760,63 @@ public class GitHubActionGenerator {
         return "OB_" + getInternalVersionEnvVarName(name).toUpperCase();
     }
 
+    private String[] createObjectStoreArgs(RepoConfig repoConfig) {
+        if (!repoConfig.isObjectStore()) {
+            return new String[0];
+        }
+        return new String[]{BackupMavenArtifacts.ARG_OBJECT_STORE + "=" + MAVEN_REPO_OBJECT_STORE.toAbsolutePath().toString()};
+    }
+
+    private String[] createSplitArgs(RepoConfig repoConfig) {
+        List<String> args = new ArrayList<>();
+        if (repoConfig.getSplitSizeMb() != null) {
+            args.add(SplitLargeFilesInDirectory.ARG_SPLIT_SIZE_MB + "=" + repoConfig.getSplitSizeMb());
+        }
+        if (repoConfig.isContentDefinedChunking()) {
+            args.add(SplitLargeFilesInDirectory.ARG_CONTENT_DEFINED_CHUNKING);
+        }
+        return args.toArray(new String[0]);
+    }
+
+    private String[] createCopyLogsArgs(CopyLogsConfig copyLogs) {
+        List<String> args = new ArrayList<>();
+        addListArg(args, CopyLogArtifacts.ARG_INCLUDE, copyLogs.getInclude());
+        addListArg(args, CopyLogArtifacts.ARG_EXCLUDE, copyLogs.getExclude());
+        // The maven repository backups can contain a lot of files, and have no logs in them
+        List<String> prune = new ArrayList<>(copyLogs.getPrune());
+        prune.add(MAVEN_REPO_BACKUPS_ROOT.toString());
+        prune.add(MAVEN_REPO_OBJECT_STORE.toString());
+        addListArg(args, CopyLogArtifacts.ARG_PRUNE, prune);
+        if (copyLogs.getMaxSizeMb() != null) {
+            args.add(CopyLogArtifacts.ARG_MAX_SIZE_MB + "=" + copyLogs.getMaxSizeMb());
+        }
+        if (copyLogs.getMaxFileSizeMb() != null) {
+            args.add(CopyLogArtifacts.ARG_MAX_FILE_SIZE_MB + "=" + copyLogs.getMaxFileSizeMb());
+        }
+        if (copyLogs.getKeepHeadMb() != null) {
+            args.add(CopyLogArtifacts.ARG_KEEP_HEAD_MB + "=" + copyLogs.getKeepHeadMb());
+        }
+        if (copyLogs.getKeepTailMb() != null) {
+            args.add(CopyLogArtifacts.ARG_KEEP_TAIL_MB + "=" + copyLogs.getKeepTailMb());
+        }
+        return args.toArray(new String[0]);
+    }
+
+    private String[] createBackupFilterArgs(BackupFilterConfig backupFilter) {
+        List<String> args = new ArrayList<>();
+        addListArg(args, BackupMavenArtifacts.ARG_INCLUDE_CLASSIFIERS, backupFilter.getIncludeClassifiers());
+        addListArg(args, BackupMavenArtifacts.ARG_EXCLUDE_CLASSIFIERS, backupFilter.getExcludeClassifiers());
+        addListArg(args, BackupMavenArtifacts.ARG_INCLUDE_EXTENSIONS, backupFilter.getIncludeExtensions());
+        addListArg(args, BackupMavenArtifacts.ARG_EXCLUDE_EXTENSIONS, backupFilter.getExcludeExtensions());
+        return args.toArray(new String[args.size()]);
+    }
+
+    private void addListArg(List<String> args, String arg, List<String> values) {
+        if (values.size() > 0) {
+            args.add(arg + "=" + String.join(",", values));
+        }
+    }
+
     private String formatOutputVersionVariableName(String buildJobName, String componentName) {
         return String.format("needs.%s.outputs.%s",
                 buildJobName,
@@ -911,6 +1015,7 @@ public class GitHubActionGenerator {
             steps.add(
                     new RunMultiRepoCiToolCommandStepBuilder()
                             .setJar(CI_TOOLS_CHECKOUT_FOLDER + "/" + TOOL_JAR_NAME)
+                            .setClassDataSharing(repoConfig.isClassDataSharing())
                             .setCommand(SplitLargeFilesInDirectory.MergeCommand.NAME)
                             .addArgs("${" + OB_ARTIFACTS_DIRECTORY_VAR_NAME + "}")
                             .build());
@@ -943,7 +1048,9 @@ public class GitHubActionGenerator {
             steps.add(
                     new RunMultiRepoCiToolCommandStepBuilder()
                         .setJar(CI_TOOLS_CHECKOUT_FOLDER + "/" + TOOL_JAR_NAME)
+                        .setClassDataSharing(repoConfig.isClassDataSharing())
                         .setCommand(SplitLargeFilesInDirectory.SplitCommand.NAME)
+                        .addArgs(createSplitArgs(repoConfig))
                         .addArgs("${" + OB_ARTIFACTS_DIRECTORY_VAR_NAME + "}")
                         .build());
 
@@ -6,13 +6,27 @@ import static org.overbaard.ci.multi.repo.generator.GitHubActionGenerator.OB_ISS
 import java.util.LinkedHashMap;
 import java.util.Map;
 
+import org.overbaard.ci.multi.repo.directory.utils.GrabProjectVersion;
+
 /**
  * @author <a href="mailto:kabir.khan@jboss.com">Kabir Khan</a>
  */
 public class GrabProjectVersionStepBuilder {
+    private String jar;
+    private boolean classDataSharing;
     private String componentName;
     private String envVarName;
 
+    public GrabProjectVersionStepBuilder setJar(String jar) {
+        this.jar = jar;
+        return this;
+    }
+
+    public GrabProjectVersionStepBuilder setClassDataSharing(boolean classDataSharing) {
+        this.classDataSharing = classDataSharing;
+        return this;
+    }
+
     public GrabProjectVersionStepBuilder setComponentName(String componentName) {
         this.componentName = componentName;
         return this;
@@ -25,9 +39,18 @@ public class GrabProjectVersionStepBuilder {
 
     public Map<String, Object> build() {
         StringBuilder bash = new StringBuilder();
+        // Read the version from the pom.xml, which saves starting Maven and resolving the help plugin
+        bash.append(RunMultiRepoCiToolCommandStepBuilder.createClassDataSharingSetup(classDataSharing));
+        bash.append("TMP=\"$(" + RunMultiRepoCiToolCommandStepBuilder.createJavaCommand(jar, classDataSharing) +
+                " " + GrabProjectVersion.Command.NAME + " pom.xml)\" || TMP=\"\"\n");
+        // Fall back to Maven for versions which can't be worked out from the checkout, e.g. if they come
+        // from a profile or a parent which is not in the checkout
+        bash.append("if [ -z \"${TMP}\" ]; then\n");
+        bash.append("  echo \"Could not read the version from pom.xml. Evaluating it with Maven instead\"\n");
         // Do an initial run where we download everything from maven, which pollutes the output
-        bash.append("mvn -B help:evaluate -Dexpression=project.version -pl .\n");
-        bash.append("TMP=\"$(mvn -B help:evaluate -Dexpression=project.version -pl . | grep -v '^\\[')\"\n");
+        bash.append("  mvn -B help:evaluate -Dexpression=project.version -pl .\n");
+        bash.append("  TMP=\"$(mvn -B help:evaluate -Dexpression=project.version -pl . | grep -v '^\\[')\"\n");
+        bash.append("fi\n");
         bash.append("echo \"version: ${TMP}\"\n");
         if (envVarName != null) {
             bash.append("echo \"Saving version to env var: \\$" + envVarName + "\"\n");
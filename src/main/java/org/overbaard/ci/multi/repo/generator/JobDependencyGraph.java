@@ -0,0 +1,124 @@
+package org.overbaard.ci.multi.repo.generator;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The graph of the jobs in the workflow, made up of the {@code needs} of each job. Several of the jobs need every
+ * job set up before them, and component jobs need all their dependencies even when one of them already needs
+ * another. {@link #reduceNeeds()} removes the needs which are already implied by another need of the job.
+ * <p/>
+ * The {@code needs} context of a job only contains the jobs it needs directly, so a need is always kept if the
+ * job refers to its outputs or result.
+ *
+ * @author <a href="mailto:kabir.khan@jboss.com">Kabir Khan</a>
+ */
+class JobDependencyGraph {
+    private final Map<String, Object> jobs;
+    private final Map<String, List<String>> needs = new HashMap<>();
+    // The jobs each job needs, directly or indirectly
+    private final Map<String, Set<String>> ancestors = new HashMap<>();
+
+    JobDependencyGraph(Map<String, Object> jobs) {
+        this.jobs = jobs;
+        for (Map.Entry<String, Object> entry : jobs.entrySet()) {
+            needs.put(entry.getKey(), getNeeds(entry.getValue()));
+        }
+    }
+
+    private static List<String> getNeeds(Object job) {
+        List<String> list = new ArrayList<>();
+        if (job instanceof Map) {
+            Object needs = ((Map<?, ?>) job).get("needs");
+            if (needs instanceof List) {
+                for (Object need : (List<?>) needs) {
+                    list.add(need.toString());
+                }
+            } else if (needs != null) {
+                list.add(needs.toString());
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Removes the needs of each job which are also needed by one of its other needs.
+     */
+    void reduceNeeds() {
+        for (Map.Entry<String, Object> entry : jobs.entrySet()) {
+            List<String> jobNeeds = needs.get(entry.getKey());
+            if (jobNeeds.size() < 2) {
+                continue;
+            }
+            List<String> reduced = new ArrayList<>();
+            for (String need : jobNeeds) {
+                if (!isImpliedByOtherNeed(need, jobNeeds) || refersToNeed(entry.getValue(), need)) {
+                    reduced.add(need);
+                }
+            }
+            if (reduced.size() < jobNeeds.size()) {
+                asJob(entry.getValue()).put("needs", reduced);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> asJob(Object job) {
+        // Only jobs with needs get here, and those are all maps
+        return (Map<String, Object>) job;
+    }
+
+    private boolean isImpliedByOtherNeed(String need, List<String> jobNeeds) {
+        for (String other : jobNeeds) {
+            if (!other.equals(need) && getAncestors(other).contains(need)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Set<String> getAncestors(String job) {
+        Set<String> result = ancestors.get(job);
+        if (result != null) {
+            return result;
+        }
+        result = new HashSet<>();
+        // Guard against cycles, which GitHub would reject anyway
+        ancestors.put(job, result);
+        List<String> jobNeeds = needs.get(job);
+        if (jobNeeds != null) {
+            for (String need : jobNeeds) {
+                result.add(need);
+                result.addAll(getAncestors(need));
+            }
+        }
+        return result;
+    }
+
+    private static boolean refersToNeed(Object job, String need) {
+        return refersTo(job, "needs." + need + ".");
+    }
+
+    private static boolean refersTo(Object value, String reference) {
+        if (value instanceof Map) {
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                if (!"needs".equals(entry.getKey()) && refersTo(entry.getValue(), reference)) {
+                    return true;
+                }
+            }
+        } else if (value instanceof Iterable) {
+            for (Object element : (Iterable<?>) value) {
+                if (refersTo(element, reference)) {
+                    return true;
+                }
+            }
+        } else if (value != null) {
+            return value.toString().contains(reference);
+        }
+        return false;
+    }
+}
@@ -1,24 +1,42 @@
 package org.overbaard.ci.multi.repo.generator;
 
 import java.util.ArrayList;
-import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Map;
+
+import org.overbaard.ci.multi.repo.Main;
 
 /**
  * @author <a href="mailto:kabir.khan@jboss.com">Kabir Khan</a>
  */
 public class RunMultiRepoCiToolCommandStepBuilder {
+    // The archive is only valid for the JVM which created it, and for the jar with its current timestamp, so it
+    // can't be shipped with the jar. Instead, the first tool command of a job creates it for the later ones.
+    // The runner's temp directory is emptied for each job
+    private static final String CDS_ARCHIVE = "${RUNNER_TEMP}/multi-repo-ci-tool.jsa";
+    // JVMs which don't support dynamic archives ignore the options, and ones which can't use the archive
+    // fall back to loading the classes as normal. The warnings go to stderr, so that the output of
+    // commands can still be captured
+    private static final String CDS_JAVA_OPTIONS = "-XX:+IgnoreUnrecognizedVMOptions ${CDS_OPTS} -Xshare:auto " +
+            "-Xlog:disable -Xlog:all=warning:stderr";
+
     private String jar;
+    private boolean classDataSharing;
     private List<String> args = new ArrayList<>();
     private IfCondition ifCondition;
     private String command;
+    // Further commands to run in the same JVM
+    private final List<RunMultiRepoCiToolCommandStepBuilder> pipelined = new ArrayList<>();
 
     public RunMultiRepoCiToolCommandStepBuilder setJar(String jar) {
         this.jar = jar;
         return this;
     }
 
+    public RunMultiRepoCiToolCommandStepBuilder setClassDataSharing(boolean classDataSharing) {
+        this.classDataSharing = classDataSharing;
+        return this;
+    }
+
     RunMultiRepoCiToolCommandStepBuilder setCommand(String command) {
         this.command = command;
         return this;
@@ -36,21 +54,60 @@ public class RunMultiRepoCiToolCommandStepBuilder {
         return this;
     }
 
-    Map<String, Object> build() {
+    /**
+     * Checks whether the other step can be run in the same JVM, straight after this one. Steps which run when
+     * something failed can't be, since the later ones should still run if an earlier one fails.
+     */
+    boolean canPipeline(RunMultiRepoCiToolCommandStepBuilder other) {
+        return jar.equals(other.jar) && classDataSharing == other.classDataSharing && other.pipelined.isEmpty() &&
+                runsOnSuccess(ifCondition) && runsOnSuccess(other.ifCondition);
+    }
+
+    private static boolean runsOnSuccess(IfCondition ifCondition) {
+        // success() is what GitHub uses when there is no condition
+        return ifCondition == null || ifCondition == IfCondition.SUCCESS;
+    }
+
+    /**
+     * Runs the other step's command in the same JVM, straight after this one.
+     */
+    RunMultiRepoCiToolCommandStepBuilder pipeline(RunMultiRepoCiToolCommandStepBuilder other) {
+        if (!canPipeline(other)) {
+            throw new IllegalStateException("Can't pipeline '" + other.command + "' after '" + command + "'");
+        }
+        pipelined.add(other);
+        return this;
+    }
+
+    /**
+     * Builds the step. It keeps this builder, so that it can be pipelined with adjacent steps later.
+     */
+    ToolCommandStep build() {
         StringBuilder sb = new StringBuilder();
         // Run the sdkman init step before trying to use it
-        sb.append("java -jar ");
-        sb.append(jar);
-        sb.append(" ");
-        sb.append(command);
-        for (String arg : args) {
+        sb.append(createClassDataSharingSetup(classDataSharing));
+        sb.append(createJavaCommand(jar, classDataSharing));
+        if (pipelined.size() > 0) {
             sb.append(" ");
-            sb.append(arg);
+            sb.append(Main.PipelineCommand.NAME);
+        }
+        appendCommand(sb);
+        List<String> commands = new ArrayList<>();
+        commands.add(command);
+        for (RunMultiRepoCiToolCommandStepBuilder other : pipelined) {
+            sb.append(" ");
+            sb.append(Main.PipelineCommand.SEPARATOR);
+            other.appendCommand(sb);
+            commands.add(other.command);
         }
         sb.append("\n");
 
-        Map<String, Object> steps = new LinkedHashMap<>();
-        steps.put("name", "Run multi-repo-ci-tool '" + command + "' command");
+        ToolCommandStep steps = new ToolCommandStep(this);
+        if (pipelined.isEmpty()) {
+            steps.put("name", "Run multi-repo-ci-tool '" + command + "' command");
+        } else {
+            steps.put("name", "Run multi-repo-ci-tool '" + String.join("', '", commands) + "' commands");
+        }
         if (ifCondition != null) {
             steps.put("if", ifCondition.getValue());
         }
@@ -58,4 +115,32 @@ public class RunMultiRepoCiToolCommandStepBuilder {
         return steps;
     }
 
+    /**
+     * Creates the bash lines choosing whether to create or use the archive of the loaded classes, which need
+     * to go before {@link #createJavaCommand(String, boolean)}.
+     */
+    static String createClassDataSharingSetup(boolean classDataSharing) {
+        if (!classDataSharing) {
+            return "";
+        }
+        return "if [ -f \"" + CDS_ARCHIVE + "\" ]; then\n" +
+                "  CDS_OPTS=\"-XX:SharedArchiveFile=" + CDS_ARCHIVE + "\"\n" +
+                "else\n" +
+                "  CDS_OPTS=\"-XX:ArchiveClassesAtExit=" + CDS_ARCHIVE + "\"\n" +
+                "fi\n";
+    }
+
+    static String createJavaCommand(String jar, boolean classDataSharing) {
+        return "java " + (classDataSharing ? CDS_JAVA_OPTIONS + " " : "") + "-jar " + jar;
+    }
+
+    private void appendCommand(StringBuilder sb) {
+        sb.append(" ");
+        sb.append(command);
+        for (String arg : args) {
+            sb.append(" ");
+            sb.append(arg);
+        }
+    }
+
 }
@@ -0,0 +1,46 @@
+package org.overbaard.ci.multi.repo.generator;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A step running a tool command. It is written to the workflow like any other step, but also keeps the builder of
+ * the tool command, so that once a job's steps are all there the adjacent ones can be run in one JVM with the
+ * {@code pipeline} command.
+ *
+ * @author <a href="mailto:kabir.khan@jboss.com">Kabir Khan</a>
+ */
+class ToolCommandStep extends LinkedHashMap<String, Object> {
+    private static final long serialVersionUID = 1L;
+
+    private final transient RunMultiRepoCiToolCommandStepBuilder builder;
+
+    ToolCommandStep(RunMultiRepoCiToolCommandStepBuilder builder) {
+        this.builder = builder;
+    }
+
+    /**
+     * Merges adjacent tool command steps in the job which can be run one after the other into the first of them.
+     */
+    static void pipelineAdjacentSteps(Object job) {
+        Object steps = job instanceof Map ? ((Map<?, ?>) job).get("steps") : null;
+        if (!(steps instanceof List)) {
+            return;
+        }
+        ToolCommandStep previous = null;
+        for (Iterator<?> it = ((List<?>) steps).iterator(); it.hasNext(); ) {
+            Object step = it.next();
+            ToolCommandStep current = step instanceof ToolCommandStep ? (ToolCommandStep) step : null;
+            if (current != null && previous != null && previous.builder.canPipeline(current.builder)) {
+                previous.builder.pipeline(current.builder);
+                previous.clear();
+                previous.putAll(previous.builder.build());
+                it.remove();
+                continue;
+            }
+            previous = current;
+        }
+    }
+}
@@ -1,89 +1,455 @@
 package org.overbaard.ci.multi.repo.log.copy;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
-import java.nio.file.FileVisitResult;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveTask;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import org.overbaard.ci.multi.repo.ToolCommand;
 
+/**
+ * Copies the logs, and the reports of failed tests, from a job's checkout so they can be uploaded. The directory
+ * tree is scanned in parallel, skipping the directories which are known not to contain anything of interest.
+ * <p/>
+ * The files are either copied to an output directory, or streamed straight into a zip archive. Large files can
+ * have their middle cut out, keeping the head and tail of them. A budget for the total size can be given, in which
+ * case the reports of failed tests and the other files from the modules they are in are given priority. Whenever
+ * files are truncated or left out, they are listed in {@value #SUMMARY_FILE_NAME} along with their original sizes.
+ *
+ * @author <a href="mailto:kabir.khan@jboss.com">Kabir Khan</a>
+ */
 public class CopyLogArtifacts {
+    public static final String ARG_INCLUDE = "--include";
+    public static final String ARG_EXCLUDE = "--exclude";
+    public static final String ARG_PRUNE = "--prune";
+    public static final String ARG_THREADS = "--threads";
+    public static final String ARG_ZIP = "--zip";
+    public static final String ARG_MAX_SIZE_MB = "--max-size-mb";
+    public static final String ARG_MAX_FILE_SIZE_MB = "--max-file-size-mb";
+    public static final String ARG_KEEP_HEAD_MB = "--keep-head-mb";
+    public static final String ARG_KEEP_TAIL_MB = "--keep-tail-mb";
+
+    static final String SUMMARY_FILE_NAME = "copy-logs-summary.txt";
+
+    // Surefire and failsafe write the output of forked JVMs which could not be reported anywhere else to
+    // *.dump and *.dumpstream files
+    static final List<String> DEFAULT_INCLUDE = Arrays.asList("*.log", "*.dump", "*.dumpstream");
+    static final List<String> DEFAULT_PRUNE = Arrays.asList(".git", "node_modules",
+            "**/target/classes", "**/target/test-classes",
+            "**/target/generated-sources", "**/target/generated-test-sources");
+    private static final Set<String> REPORT_DIRECTORIES = new HashSet<>(Arrays.asList("surefire-reports", "failsafe-reports"));
+
+    private static final XMLInputFactory XML_INPUT_FACTORY = createXmlInputFactory();
 
     private final Path inputPath;
     private final Path outputPath;
+    private final PathGlobs include;
+    private final PathGlobs exclude;
+    private final PathGlobs prune;
+    private final int threads;
+    private final boolean zip;
+    private final long maxSize;
+    private final LogFileWriter logFileWriter;
 
     public CopyLogArtifacts(Path inputPath, Path outputPath) {
-        this.inputPath = inputPath.toAbsolutePath();
-        this.outputPath = outputPath.toAbsolutePath();
+        this(inputPath, outputPath, Collections.emptyList(), Collections.emptyList(), Collections.emptyList(),
+                Runtime.getRuntime().availableProcessors(), false, -1, LogFileWriter.NO_TRUNCATION);
+    }
+
+    /**
+     * @param include globs for files to copy on top of the default ones
+     * @param exclude globs for files not to copy
+     * @param prune globs for directories not to look in on top of the default ones
+     * @param zip whether the output path is a zip archive to write to rather than a directory
+     * @param maxSize the maximum number of bytes to copy in total, or {@code -1} for no limit
+     * @param logFileWriter writes the files, truncating the large ones
+     */
+    CopyLogArtifacts(Path inputPath, Path outputPath, List<String> include, List<String> exclude, List<String> prune,
+                     int threads, boolean zip, long maxSize, LogFileWriter logFileWriter) {
+        this.inputPath = inputPath.toAbsolutePath().normalize();
+        this.outputPath = outputPath.toAbsolutePath().normalize();
+        this.include = new PathGlobs(concat(DEFAULT_INCLUDE, include));
+        this.exclude = new PathGlobs(exclude);
+        this.prune = new PathGlobs(concat(DEFAULT_PRUNE, prune));
+        this.threads = threads;
+        this.zip = zip;
+        this.maxSize = maxSize;
+        this.logFileWriter = logFileWriter;
+    }
+
+    private static List<String> concat(List<String> list1, List<String> list2) {
+        List<String> list = new ArrayList<>(list1);
+        list.addAll(list2);
+        return list;
+    }
+
+    private static XMLInputFactory createXmlInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        // The reports don't need a DTD, and not loading one keeps it from being fetched
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
     }
 
     static void copy(String[] args) throws Exception {
-        System.out.println(args.length);
-        if (args.length != 2) {
-            throw new Exception("Wrong number of args: " + Arrays.asList(args));
+        List<String> include = Collections.emptyList();
+        List<String> exclude = Collections.emptyList();
+        List<String> prune = Collections.emptyList();
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean zip = false;
+        long maxSize = -1;
+        long maxFileSize = -1;
+        long keepHead = -1;
+        long keepTail = -1;
+        List<String> paths = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith(ARG_INCLUDE + "=")) {
+                include = parseList(ARG_INCLUDE, arg);
+            } else if (arg.startsWith(ARG_EXCLUDE + "=")) {
+                exclude = parseList(ARG_EXCLUDE, arg);
+            } else if (arg.startsWith(ARG_PRUNE + "=")) {
+                prune = parseList(ARG_PRUNE, arg);
+            } else if (arg.startsWith(ARG_THREADS + "=")) {
+                threads = parseInt(ARG_THREADS, arg);
+            } else if (arg.equals(ARG_ZIP)) {
+                zip = true;
+            } else if (arg.startsWith(ARG_MAX_SIZE_MB + "=")) {
+                maxSize = parseInt(ARG_MAX_SIZE_MB, arg) * 1024L * 1024L;
+            } else if (arg.startsWith(ARG_MAX_FILE_SIZE_MB + "=")) {
+                maxFileSize = parseInt(ARG_MAX_FILE_SIZE_MB, arg) * 1024L * 1024L;
+            } else if (arg.startsWith(ARG_KEEP_HEAD_MB + "=")) {
+                keepHead = parseInt(ARG_KEEP_HEAD_MB, arg) * 1024L * 1024L;
+            } else if (arg.startsWith(ARG_KEEP_TAIL_MB + "=")) {
+                keepTail = parseInt(ARG_KEEP_TAIL_MB, arg) * 1024L * 1024L;
+            } else {
+                paths.add(arg);
+            }
+        }
+        if (paths.size() != 2) {
+            throw new IllegalStateException("Need the following args: [" + ARG_INCLUDE + "=<g1,g2>] " +
+                    "[" + ARG_EXCLUDE + "=<g1,g2>] [" + ARG_PRUNE + "=<g1,g2>] [" + ARG_THREADS + "=<n>] " +
+                    "[" + ARG_ZIP + "] [" + ARG_MAX_SIZE_MB + "=<n>] [" + ARG_MAX_FILE_SIZE_MB + "=<n>] " +
+                    "[" + ARG_KEEP_HEAD_MB + "=<n>] [" + ARG_KEEP_TAIL_MB + "=<n>] " +
+                    "<input directory> <output directory or zip file>. Got: " + Arrays.asList(args));
+        }
+        LogFileWriter logFileWriter = LogFileWriter.NO_TRUNCATION;
+        if (keepHead >= 0 || keepTail >= 0) {
+            if (maxFileSize >= 0) {
+                throw new IllegalStateException(ARG_MAX_FILE_SIZE_MB + " cannot be used together with " +
+                        ARG_KEEP_HEAD_MB + " or " + ARG_KEEP_TAIL_MB);
+            }
+            logFileWriter = new LogFileWriter(Math.max(keepHead, 0), Math.max(keepTail, 0));
+        } else if (maxFileSize >= 0) {
+            logFileWriter = LogFileWriter.forMaxFileSize(maxFileSize);
         }
-        Path input = Paths.get(args[0]);
-        Path output = Paths.get(args[1]);
+        Path input = Paths.get(paths.get(0));
+        Path output = Paths.get(paths.get(1));
 
         if (!Files.exists(input) || !Files.isDirectory(input)) {
             throw new IllegalStateException("Input path " + input + " does not exist or is not a directory");
         }
-        if (!Files.exists(output)) {
+        if (zip) {
+            Files.createDirectories(output.toAbsolutePath().getParent());
+        } else if (!Files.exists(output)) {
             Files.createDirectories(output);
         }
 
-        CopyLogArtifacts util = new CopyLogArtifacts(input, output);
+        CopyLogArtifacts util = new CopyLogArtifacts(input, output, include, exclude, prune, threads, zip, maxSize, logFileWriter);
         util.copyArtifacts();
     }
 
+    private static int parseInt(String name, String arg) {
+        String val = arg.substring(name.length() + 1);
+        try {
+            return Integer.parseInt(val);
+        } catch (NumberFormatException e) {
+            throw new IllegalStateException(name + " '" + val + "' is not an integer");
+        }
+    }
+
+    private static List<String> parseList(String name, String arg) {
+        List<String> list = new ArrayList<>();
+        for (String value : arg.substring(name.length() + 1).split(",")) {
+            if (value.trim().length() > 0) {
+                list.add(value.trim());
+            }
+        }
+        return list;
+    }
+
     private void copyArtifacts() throws Exception {
-        Files.walkFileTree(inputPath.toAbsolutePath(), new SimpleFileVisitor<Path>() {
-            @Override
-            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                String fileName = file.getFileName().toString();
-                if (fileName.endsWith(".log")) {
-                    copyFile(inputPath, file, outputPath);
-                } else if (fileName.startsWith("TEST-") && fileName.endsWith(".xml")) {
-                    if (file.getParent().getFileName().toString().equals("surefire-reports")) {
-                        if (surefireFailed(file)) {
-                            copyFile(inputPath, file, outputPath);
-                        }
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            List<Path> files;
+            try {
+                files = pool.invoke(new DirectoryScanner(inputPath));
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+
+            Map<Path, Long> sizes = new LinkedHashMap<>();
+            for (Path file : files) {
+                sizes.put(file, Files.size(file));
+            }
+            List<String> summary = new ArrayList<>();
+            files = limitTotalSize(sizes, summary);
+            for (Path file : files) {
+                if (logFileWriter.isTruncated(sizes.get(file))) {
+                    summary.add("truncated " + inputPath.relativize(file) + " (" + sizes.get(file) + " bytes)");
+                }
+            }
+            if (zip) {
+                writeZip(files, sizes, summary);
+                return;
+            }
+
+            List<Callable<Void>> copies = new ArrayList<>();
+            for (Path file : files) {
+                copies.add(() -> {
+                    copyFile(inputPath, file, sizes.get(file), outputPath);
+                    return null;
+                });
+            }
+            for (Future<Void> copy : pool.invokeAll(copies)) {
+                try {
+                    copy.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException) {
+                        throw (IOException) e.getCause();
                     }
+                    throw e;
                 }
-                return super.visitFile(file, attrs);
             }
-        });
+            if (summary.size() > 0) {
+                Files.write(outputPath.resolve(SUMMARY_FILE_NAME), summary, StandardCharsets.UTF_8);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Leaves out the files which would take the total over the maximum size, once truncated. The budget goes
+     * to the reports of failed tests first, then to the other files of the modules with failed tests, and then
+     * to everything else. The files which are kept stay in their original order.
+     */
+    private List<Path> limitTotalSize(Map<Path, Long> sizes, List<String> summary) {
+        List<Path> files = new ArrayList<>(sizes.keySet());
+        if (maxSize < 0) {
+            return files;
+        }
+        // Only the reports of failed tests get copied, so any report found means its module had failures
+        Set<Path> failedModules = new HashSet<>();
+        for (Path file : files) {
+            if (isInReportDirectory(file)) {
+                failedModules.add(getModule(file));
+            }
+        }
+        List<Path> prioritised = new ArrayList<>(files);
+        prioritised.sort(Comparator.comparingInt(file -> getPriority(file, failedModules)));
+
+        Set<Path> kept = new HashSet<>();
+        long total = 0;
+        for (Path file : prioritised) {
+            long size = logFileWriter.getCopiedSize(sizes.get(file));
+            if (total + size > maxSize) {
+                System.out.println("WARN - leaving out " + file + " since the logs have reached the maximum size");
+                summary.add("left out " + inputPath.relativize(file) + " (" + sizes.get(file) + " bytes)");
+                continue;
+            }
+            total += size;
+            kept.add(file);
+        }
+        files.retainAll(kept);
+        return files;
     }
 
+    /**
+     * Gets the module directory a test report belongs to. The reports are normally in
+     * {@code <module>/target/surefire-reports}, but the report directory might have been configured to be directly
+     * in the module. The module is never outside the input directory.
+     */
+    private Path getModule(Path report) {
+        Path module = report.getParent().getParent();
+        if (module != null && module.getFileName() != null && module.getFileName().toString().equals("target")) {
+            module = module.getParent();
+        }
+        if (module == null || !module.startsWith(inputPath)) {
+            return inputPath;
+        }
+        return module;
+    }
+
+    private static int getPriority(Path file, Set<Path> failedModules) {
+        if (isInReportDirectory(file)) {
+            return 0;
+        }
+        for (Path module : failedModules) {
+            if (file.startsWith(module)) {
+                return 1;
+            }
+        }
+        return 2;
+    }
+
+    private static boolean isInReportDirectory(Path file) {
+        Path parent = file.getParent();
+        return parent != null && parent.getFileName() != null
+                && REPORT_DIRECTORIES.contains(parent.getFileName().toString());
+    }
+
+    private void writeZip(List<Path> files, Map<Path, Long> sizes, List<String> summary) throws IOException {
+        // Put everything under a directory with the name of the archive, as 'zip -r' on a directory would
+        String fileName = outputPath.getFileName().toString();
+        String root = fileName.endsWith(".zip") ? fileName.substring(0, fileName.length() - 4) : fileName;
+        System.out.println("Writing logs to " + outputPath);
+        try (ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(outputPath)))) {
+            for (Path file : files) {
+                String name = root + "/" + inputPath.relativize(file).toString().replace('\\', '/');
+                System.out.println("Adding " + file);
+                out.putNextEntry(new ZipEntry(name));
+                logFileWriter.write(file, sizes.get(file), out);
+                out.closeEntry();
+            }
+            if (summary.size() > 0) {
+                out.putNextEntry(new ZipEntry(root + "/" + SUMMARY_FILE_NAME));
+                out.write((String.join("\n", summary) + "\n").getBytes(StandardCharsets.UTF_8));
+                out.closeEntry();
+            }
+        }
+    }
+
+    private boolean shouldCopy(Path file, Path relative) throws IOException {
+        if (exclude.matches(relative)) {
+            return false;
+        }
+        String fileName = file.getFileName().toString();
+        if (fileName.startsWith("TEST-") && fileName.endsWith(".xml") && isInReportDirectory(file)) {
+            return surefireFailed(file);
+        }
+        return include.matches(relative);
+    }
+
+    /**
+     * Checks the counts on the report's root {@code <testsuite>} element. The reports can be large when they
+     * contain the output of the tests, so only as far as the root element is read.
+     */
     private boolean surefireFailed(Path path) throws IOException {
-        List<String> lines = Files.readAllLines(path);
-        for (String line : lines) {
-            line = line.trim();
-            if (line.startsWith("<testsuite ") && line.contains("surefire-test-report.xsd")) {
-                if (line.contains("failures=\"0\"") && line.contains("errors=\"0\"")) {
-                    return false;
-                } else {
-                    return true;
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(path))) {
+            XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(in);
+            try {
+                while (reader.hasNext()) {
+                    if (reader.next() == XMLStreamConstants.START_ELEMENT) {
+                        if (reader.getLocalName().equals("testsuite")) {
+                            return !"0".equals(reader.getAttributeValue(null, "failures")) ||
+                                    !"0".equals(reader.getAttributeValue(null, "errors"));
+                        }
+                        break;
+                    }
                 }
+            } finally {
+                reader.close();
             }
+        } catch (XMLStreamException e) {
+            // Handled below
         }
         System.out.println(path + " does not appear to be a valid surefire report. Adding it " +
                 "to the list of copied artifacts just in case");
         return true;
     }
 
-    private void copyFile(Path parent, Path path, Path outputDir) throws IOException {
+    private void copyFile(Path parent, Path path, long size, Path outputDir) throws IOException {
         Path relative = parent.relativize(path);
         Path target = outputDir.resolve(relative);
 
         Files.createDirectories(target.getParent());
         System.out.println("Copying " + path + " to " + target);
-        Files.copy(path, target);
+        if (!logFileWriter.isTruncated(size)) {
+            Files.copy(path, target);
+            return;
+        }
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(target))) {
+            logFileWriter.write(path, size, out);
+        }
+    }
+
+    /**
+     * Lists a directory, and forks a task for each of its subdirectories. The results are joined in the order
+     * of the sorted directory entries, so the files are always listed in the same order. The tasks are never
+     * serialized.
+     */
+    @SuppressWarnings("serial")
+    private class DirectoryScanner extends RecursiveTask<List<Path>> {
+        private final Path dir;
+
+        DirectoryScanner(Path dir) {
+            this.dir = dir;
+        }
+
+        @Override
+        protected List<Path> compute() {
+            try {
+                List<Path> entries = new ArrayList<>();
+                try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+                    for (Path entry : stream) {
+                        entries.add(entry);
+                    }
+                }
+                Collections.sort(entries);
+
+                List<Path> files = new ArrayList<>();
+                List<DirectoryScanner> children = new ArrayList<>();
+                for (Path entry : entries) {
+                    BasicFileAttributes attrs = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    Path relative = inputPath.relativize(entry);
+                    if (attrs.isDirectory()) {
+                        if (!entry.equals(outputPath) && !prune.matches(relative)) {
+                            DirectoryScanner child = new DirectoryScanner(entry);
+                            child.fork();
+                            children.add(child);
+                        }
+                    } else if (attrs.isRegularFile() && shouldCopy(entry, relative)) {
+                        files.add(entry);
+                    }
+                }
+                for (DirectoryScanner child : children) {
+                    files.addAll(child.join());
+                }
+                return files;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
     }
 
     /**
@@ -0,0 +1,98 @@
+package org.overbaard.ci.multi.repo.log.copy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Writes the contents of a log file, cutting out the middle of it if it is larger than the head and tail to keep.
+ * The start of a log usually shows how the build was set up, and the end shows how it failed. A marker line with
+ * the number of bytes cut out and the original size of the file goes where the middle was.
+ *
+ * @author <a href="mailto:kabir.khan@jboss.com">Kabir Khan</a>
+ */
+class LogFileWriter {
+    static final LogFileWriter NO_TRUNCATION = new LogFileWriter(-1, -1);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final long head;
+    private final long tail;
+
+    /**
+     * @param head the number of bytes to keep from the start of large files, or {@code -1} to not truncate files
+     * @param tail the number of bytes to keep from the end of large files, or {@code -1} to not truncate files
+     */
+    LogFileWriter(long head, long tail) {
+        this.head = head;
+        this.tail = tail;
+    }
+
+    /**
+     * Creates a writer keeping half of the maximum size from each end of large files.
+     */
+    static LogFileWriter forMaxFileSize(long maxFileSize) {
+        return new LogFileWriter(maxFileSize / 2, maxFileSize - maxFileSize / 2);
+    }
+
+    boolean isTruncated(long size) {
+        return head >= 0 && size > head + tail;
+    }
+
+    /**
+     * Gets the number of bytes of a file of the given size which will be written, not counting the marker.
+     */
+    long getCopiedSize(long size) {
+        return isTruncated(size) ? head + tail : size;
+    }
+
+    /**
+     * Writes the file to the stream, truncating it if needed. The stream is not closed.
+     *
+     * @param file the file
+     * @param size the size of the file
+     * @param out the stream to write to
+     */
+    void write(Path file, long size, OutputStream out) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            if (!isTruncated(size)) {
+                copy(in, out, size);
+                return;
+            }
+            long skipped = size - head - tail;
+            copy(in, out, head);
+            skip(in, skipped);
+            out.write(("\n[... truncated " + skipped + " bytes of " + size + " by copy-logs ...]\n")
+                    .getBytes(StandardCharsets.UTF_8));
+            copy(in, out, tail);
+        }
+    }
+
+    private static void copy(InputStream in, OutputStream out, long length) throws IOException {
+        byte[] buffer = new byte[(int) Math.min(BUFFER_SIZE, Math.max(length, 1))];
+        long remaining = length;
+        while (remaining > 0) {
+            int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (read < 0) {
+                // The log was written to while we were copying it; we have what there is
+                return;
+            }
+            out.write(buffer, 0, read);
+            remaining -= read;
+        }
+    }
+
+    private static void skip(InputStream in, long length) throws IOException {
+        long remaining = length;
+        while (remaining > 0) {
+            long skipped = in.skip(remaining);
+            if (skipped <= 0) {
+                return;
+            }
+            remaining -= skipped;
+        }
+    }
+}
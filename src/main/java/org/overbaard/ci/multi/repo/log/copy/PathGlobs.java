@@ -0,0 +1,56 @@
+package org.overbaard.ci.multi.repo.log.copy;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A set of globs matched against paths relative to the directory logs are copied from. Globs without a slash
+ * are matched against the file name, so {@code *.log} matches log files in any directory. Globs starting with
+ * {@code **}{@code /} also match at the top level, so {@code **}{@code /target/classes} matches {@code target/classes}.
+ *
+ * @author <a href="mailto:kabir.khan@jboss.com">Kabir Khan</a>
+ */
+class PathGlobs {
+    private final List<PathMatcher> nameMatchers = new ArrayList<>();
+    private final List<PathMatcher> pathMatchers = new ArrayList<>();
+
+    PathGlobs(List<String> globs) {
+        for (String glob : globs) {
+            if (!glob.contains("/")) {
+                nameMatchers.add(createMatcher(glob));
+                continue;
+            }
+            pathMatchers.add(createMatcher(glob));
+            if (glob.startsWith("**/")) {
+                pathMatchers.add(createMatcher(glob.substring(3)));
+            }
+        }
+    }
+
+    private static PathMatcher createMatcher(String glob) {
+        return FileSystems.getDefault().getPathMatcher("glob:" + glob);
+    }
+
+    /**
+     * @param relativePath the path relative to the directory logs are copied from
+     */
+    boolean matches(Path relativePath) {
+        if (!nameMatchers.isEmpty()) {
+            Path name = relativePath.getFileName();
+            for (PathMatcher matcher : nameMatchers) {
+                if (matcher.matches(name)) {
+                    return true;
+                }
+            }
+        }
+        for (PathMatcher matcher : pathMatchers) {
+            if (matcher.matches(relativePath)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
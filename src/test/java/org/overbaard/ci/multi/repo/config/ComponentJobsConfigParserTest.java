@@ -85,6 +85,22 @@ public class ComponentJobsConfigParserTest {
         Assert.assertEquals("1", endJob.getJobEnv().get("P1"));
         Assert.assertEquals("end", endJob.getJobEnv().get("P2"));
 
+        BackupFilterConfig backupFilter = config.getBackupFilter();
+        Assert.assertEquals(Collections.singletonList("tests"), backupFilter.getIncludeClassifiers());
+        Assert.assertEquals(0, backupFilter.getExcludeClassifiers().size());
+        Assert.assertEquals(0, backupFilter.getIncludeExtensions().size());
+        Assert.assertEquals(Collections.singletonList("zip"), backupFilter.getExcludeExtensions());
+
+        // The lists set in the component job file replace the repository ones
+        BackupFilterConfig repoBackupFilter = new BackupFilterConfig(
+                Collections.emptyList(), Arrays.asList("sources", "javadoc"),
+                Collections.emptyList(), Collections.singletonList("tar.gz"));
+        BackupFilterConfig merged = repoBackupFilter.override(backupFilter);
+        Assert.assertEquals(Collections.singletonList("tests"), merged.getIncludeClassifiers());
+        Assert.assertEquals(Arrays.asList("sources", "javadoc"), merged.getExcludeClassifiers());
+        Assert.assertEquals(0, merged.getIncludeExtensions().size());
+        Assert.assertEquals(Collections.singletonList("zip"), merged.getExcludeExtensions());
+
     }
 
     @Test
@@ -138,5 +154,7 @@ public class ComponentJobsConfigParserTest {
         Assert.assertEquals(Collections.singletonList("l3"), endJob.getRunsOn());
         Assert.assertEquals("11", endJob.getJavaVersion());
         Assert.assertEquals(0, endJob.getJobEnv().size());
+
+        Assert.assertNull(config.getBackupFilter());
     }
 }
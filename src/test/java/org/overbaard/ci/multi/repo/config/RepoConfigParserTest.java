@@ -9,6 +9,7 @@ import java.util.Map;
 
 import org.junit.Assert;
 import org.junit.Test;
+import org.overbaard.ci.multi.repo.config.repo.CopyLogsConfig;
 import org.overbaard.ci.multi.repo.config.repo.RepoConfig;
 import org.overbaard.ci.multi.repo.config.repo.RepoConfigParser;
 
@@ -30,6 +31,13 @@ public class RepoConfigParserTest {
         Assert.assertTrue(repoConfig.isCommentsReporting());
         Assert.assertNull(repoConfig.getSuccessLabel());
         Assert.assertNull(repoConfig.getFailureLabel());
+        Assert.assertSame(BackupFilterConfig.NONE, repoConfig.getBackupFilter());
+        Assert.assertFalse(repoConfig.isLazyOverlay());
+        Assert.assertFalse(repoConfig.isObjectStore());
+        Assert.assertNull(repoConfig.getSplitSizeMb());
+        Assert.assertFalse(repoConfig.isContentDefinedChunking());
+        Assert.assertFalse(repoConfig.isClassDataSharing());
+        Assert.assertSame(CopyLogsConfig.DEFAULT, repoConfig.getCopyLogs());
 
         Assert.assertNull(repoConfig.getEndJob());
     }
@@ -52,6 +60,25 @@ public class RepoConfigParserTest {
         Assert.assertEquals("Pass-Label", repoConfig.getSuccessLabel());
         Assert.assertEquals("Fail-Label", repoConfig.getFailureLabel());
 
+        BackupFilterConfig backupFilter = repoConfig.getBackupFilter();
+        Assert.assertEquals(0, backupFilter.getIncludeClassifiers().size());
+        Assert.assertEquals(Arrays.asList("sources", "javadoc"), backupFilter.getExcludeClassifiers());
+        Assert.assertEquals(0, backupFilter.getIncludeExtensions().size());
+        Assert.assertEquals(Collections.singletonList("tar.gz"), backupFilter.getExcludeExtensions());
+        Assert.assertTrue(repoConfig.isLazyOverlay());
+        Assert.assertTrue(repoConfig.isObjectStore());
+        Assert.assertEquals(Integer.valueOf(45), repoConfig.getSplitSizeMb());
+        Assert.assertTrue(repoConfig.isContentDefinedChunking());
+        Assert.assertTrue(repoConfig.isClassDataSharing());
+        CopyLogsConfig copyLogs = repoConfig.getCopyLogs();
+        Assert.assertEquals(Arrays.asList("hs_err_pid*", "**/target/*.hprof"), copyLogs.getInclude());
+        Assert.assertEquals(Collections.singletonList("debug.log"), copyLogs.getExclude());
+        Assert.assertEquals(Collections.singletonList("docs"), copyLogs.getPrune());
+        Assert.assertEquals(Integer.valueOf(200), copyLogs.getMaxSizeMb());
+        Assert.assertNull(copyLogs.getMaxFileSizeMb());
+        Assert.assertEquals(Integer.valueOf(5), copyLogs.getKeepHeadMb());
+        Assert.assertEquals(Integer.valueOf(15), copyLogs.getKeepTailMb());
+
         Map<String, Object> endJob = repoConfig.getEndJob();
         //Assert.assertEquals(12, endJob.get("java-version"));
         Assert.assertEquals(Collections.singletonList("l3"), endJob.get("runs-on"));
@@ -0,0 +1,167 @@
+package org.overbaard.ci.multi.repo.directory.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.maven.model.Model;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:kabir.khan@jboss.com">Kabir Khan</a>
+ */
+public class BackupMavenArtifactsTest {
+    private static final int MB = 1024 * 1024;
+    private static final FileTime OLD_TIME = FileTime.fromMillis(1000000000000L);
+
+    @Test
+    public void testIncrementalBackup() throws Exception {
+        Path dir = Files.createTempDirectory("backup-maven-artifacts");
+        try {
+            Path rootPom = dir.resolve("project/pom.xml");
+            Files.createDirectories(rootPom.getParent());
+            Files.write(rootPom, ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+                    "<project xmlns=\"http://maven.apache.org/POM/4.0.0\">\n" +
+                    "<modelVersion>4.0.0</modelVersion>\n" +
+                    "<groupId>org.test</groupId>\n" +
+                    "<artifactId>app</artifactId>\n" +
+                    "<version>1.0</version>\n" +
+                    "</project>\n").getBytes(StandardCharsets.UTF_8));
+
+            Path mavenRepo = dir.resolve("repo");
+            Path moduleDir = mavenRepo.resolve("org/test/app/1.0");
+            Files.createDirectories(moduleDir);
+            Files.write(moduleDir.resolve("app-1.0.pom"), createContents(100));
+            Files.write(moduleDir.resolve("app-1.0.jar"), createContents(1000));
+            Files.write(moduleDir.resolve("app-1.0-dist.zip"), createContents(3 * MB));
+            Files.write(moduleDir.resolve("app-1.0-sources.jar"), createContents(200));
+            Files.write(moduleDir.resolve("app-1.0-tests.jar"), createContents(2 * MB));
+
+            Path backup = dir.resolve("backup");
+            Path backupDir = backup.resolve("org/test/app/1.0");
+            String[] args = new String[]{BackupMavenArtifacts.ARG_INCREMENTAL, BackupMavenArtifacts.ARG_SPLIT_SIZE_MB + "=1",
+                    rootPom.toString(), mavenRepo.toString(), backup.toString()};
+            BackupMavenArtifacts.backup(args);
+            assertBackedUp(moduleDir, backupDir, "app-1.0.pom", "app-1.0.jar", "app-1.0-sources.jar");
+            assertBackedUpSplit(moduleDir, backupDir, "app-1.0-dist.zip", "app-1.0-tests.jar");
+
+            // Mark the backed up files, so we can tell whether they get copied again
+            Path backupPom = backupDir.resolve("app-1.0.pom");
+            Path backupFirstPart = SplitFileUtil.getSplitFilesDirectory(backupDir.resolve("app-1.0-dist.zip"))
+                    .resolve(SplitFileUtil.createFileNameForIndex(0, 2));
+            Files.setLastModifiedTime(backupPom, OLD_TIME);
+            Files.setLastModifiedTime(backupFirstPart, OLD_TIME);
+
+            // Change the jar keeping the same size, remove the sources and make the tests jar too small to split
+            byte[] jar = Files.readAllBytes(moduleDir.resolve("app-1.0.jar"));
+            jar[500]++;
+            Files.write(moduleDir.resolve("app-1.0.jar"), jar);
+            Files.delete(moduleDir.resolve("app-1.0-sources.jar"));
+            Files.write(moduleDir.resolve("app-1.0-tests.jar"), createContents(300));
+
+            BackupMavenArtifacts.backup(args);
+            assertBackedUp(moduleDir, backupDir, "app-1.0.pom", "app-1.0.jar", "app-1.0-tests.jar");
+            assertBackedUpSplit(moduleDir, backupDir, "app-1.0-dist.zip");
+            Assert.assertEquals(OLD_TIME, Files.getLastModifiedTime(backupPom));
+            Assert.assertEquals(OLD_TIME, Files.getLastModifiedTime(backupFirstPart));
+            Assert.assertFalse(Files.exists(backupDir.resolve("app-1.0-sources.jar")));
+            Assert.assertFalse(Files.exists(SplitFileUtil.getSplitFilesDirectory(backupDir.resolve("app-1.0-tests.jar"))));
+        } finally {
+            Files.walkFileTree(dir, new DeleteFilesVisitor());
+        }
+    }
+
+    @Test
+    public void testScanModulesMatchesDepthFirstWalk() throws Exception {
+        Path dir = Files.createTempDirectory("backup-maven-artifacts");
+        try {
+            // A module tree with a few levels, with the modules listed out of alphabetical order
+            Path rootPom = writeModule(dir, "root", "parent-b", "parent-a", "leaf-z");
+            writeModule(dir.resolve("parent-b"), "parent-b", "leaf-b2", "leaf-b1");
+            writeModule(dir.resolve("parent-b/leaf-b2"), "leaf-b2");
+            writeModule(dir.resolve("parent-b/leaf-b1"), "leaf-b1", "leaf-b1-child");
+            writeModule(dir.resolve("parent-b/leaf-b1/leaf-b1-child"), "leaf-b1-child");
+            writeModule(dir.resolve("parent-a"), "parent-a", "leaf-a1", "leaf-a2", "leaf-a3");
+            writeModule(dir.resolve("parent-a/leaf-a1"), "leaf-a1");
+            writeModule(dir.resolve("parent-a/leaf-a2"), "leaf-a2");
+            writeModule(dir.resolve("parent-a/leaf-a3"), "leaf-a3");
+            writeModule(dir.resolve("leaf-z"), "leaf-z");
+
+            List<String> expected = new ArrayList<>();
+            walkModules(rootPom, expected);
+            Assert.assertEquals(10, expected.size());
+            for (int threads : new int[]{1, 4}) {
+                List<String> scanned = new ArrayList<>();
+                for (ProjectArtifactInfo info : BackupMavenArtifacts.scanModules(rootPom, threads)) {
+                    scanned.add(info.getRelativePath());
+                }
+                Assert.assertEquals(expected, scanned);
+            }
+        } finally {
+            Files.walkFileTree(dir, new DeleteFilesVisitor());
+        }
+    }
+
+    private static Path writeModule(Path moduleDir, String artifactId, String... modules) throws Exception {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        sb.append("<project xmlns=\"http://maven.apache.org/POM/4.0.0\">\n");
+        sb.append("<modelVersion>4.0.0</modelVersion>\n");
+        sb.append("<groupId>org.test</groupId>\n");
+        sb.append("<artifactId>").append(artifactId).append("</artifactId>\n");
+        sb.append("<version>1.0</version>\n");
+        sb.append("<modules>\n");
+        for (String module : modules) {
+            sb.append("<module>").append(module).append("</module>\n");
+        }
+        sb.append("</modules>\n");
+        sb.append("</project>\n");
+        Path pom = moduleDir.resolve("pom.xml");
+        Files.createDirectories(moduleDir);
+        Files.write(pom, sb.toString().getBytes(StandardCharsets.UTF_8));
+        return pom;
+    }
+
+    /**
+     * The sequential walk of the module tree the backup used before scanning in parallel
+     */
+    private static void walkModules(Path pomXml, List<String> relativePaths) throws Exception {
+        Model model = PomModelReader.readModel(pomXml);
+        relativePaths.add(ProjectArtifactInfo.create(model).getRelativePath());
+        for (String module : model.getModules()) {
+            walkModules(pomXml.getParent().resolve(module).resolve("pom.xml"), relativePaths);
+        }
+    }
+
+    private static void assertBackedUp(Path moduleDir, Path backupDir, String... names) throws Exception {
+        for (String name : names) {
+            Path backup = backupDir.resolve(name);
+            Assert.assertTrue(Files.isRegularFile(backup));
+            Assert.assertArrayEquals(Files.readAllBytes(moduleDir.resolve(name)), Files.readAllBytes(backup));
+        }
+    }
+
+    private static void assertBackedUpSplit(Path moduleDir, Path backupDir, String... names) throws Exception {
+        for (String name : names) {
+            Path backup = backupDir.resolve(name);
+            Assert.assertFalse(Files.exists(backup));
+            Path splitDir = SplitFileUtil.getSplitFilesDirectory(backup);
+            Assert.assertTrue(Files.isDirectory(splitDir));
+            Path merged = backupDir.resolveSibling("merged-" + name);
+            new SplitFileUtil().mergeFilesTo(splitDir, merged);
+            Assert.assertArrayEquals(Files.readAllBytes(moduleDir.resolve(name)), Files.readAllBytes(merged));
+            Files.delete(merged);
+        }
+    }
+
+    private static byte[] createContents(int size) {
+        byte[] contents = new byte[size];
+        new Random(size).nextBytes(contents);
+        return contents;
+    }
+}
@@ -0,0 +1,158 @@
+package org.overbaard.ci.multi.repo.directory.utils;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:kabir.khan@jboss.com">Kabir Khan</a>
+ */
+public class ContentDefinedChunkerTest {
+    private static final int MB = 1024 * 1024;
+
+    @Test
+    public void testChunkSizes() throws Exception {
+        Path dir = Files.createTempDirectory("content-defined-chunker");
+        try {
+            long maxSize = 64 * 1024;
+            Path file = dir.resolve("file.bin");
+            Files.write(file, createContents(2 * MB));
+
+            List<Long> sizes = getChunkSizes(new ContentDefinedChunker(maxSize), file);
+            long total = 0;
+            Set<Long> distinct = new HashSet<>();
+            for (int i = 0; i < sizes.size(); i++) {
+                long size = sizes.get(i);
+                Assert.assertTrue("Chunk " + i + " is too large: " + size, size <= maxSize);
+                if (i < sizes.size() - 1) {
+                    Assert.assertTrue("Chunk " + i + " is too small: " + size, size >= maxSize / 8);
+                }
+                distinct.add(size);
+                total += size;
+            }
+            Assert.assertEquals(2 * MB, total);
+            // The boundaries come from the contents, rather than being at fixed offsets
+            Assert.assertTrue(distinct.size() > sizes.size() / 2);
+        } finally {
+            Files.walkFileTree(dir, new DeleteFilesVisitor());
+        }
+    }
+
+    @Test
+    public void testBoundariesAfterInsertionAreUnchanged() throws Exception {
+        Path dir = Files.createTempDirectory("content-defined-chunker");
+        try {
+            long maxSize = 64 * 1024;
+            int insertAt = 300 * 1024;
+            byte[] inserted = new byte[100];
+            new Random(1).nextBytes(inserted);
+
+            byte[] original = createContents(2 * MB);
+            byte[] modified = new byte[original.length + inserted.length];
+            System.arraycopy(original, 0, modified, 0, insertAt);
+            System.arraycopy(inserted, 0, modified, insertAt, inserted.length);
+            System.arraycopy(original, insertAt, modified, insertAt + inserted.length, original.length - insertAt);
+
+            Path originalFile = dir.resolve("original.bin");
+            Path modifiedFile = dir.resolve("modified.bin");
+            Files.write(originalFile, original);
+            Files.write(modifiedFile, modified);
+
+            ContentDefinedChunker chunker = new ContentDefinedChunker(maxSize);
+            List<Long> originalBoundaries = getBoundaries(getChunkSizes(chunker, originalFile));
+            List<Long> modifiedBoundaries = getBoundaries(getChunkSizes(chunker, modifiedFile));
+
+            // The boundaries before the insertion are the same
+            List<Long> originalBefore = new ArrayList<>();
+            List<Long> modifiedBefore = new ArrayList<>();
+            for (long boundary : originalBoundaries) {
+                if (boundary <= insertAt) {
+                    originalBefore.add(boundary);
+                }
+            }
+            for (long boundary : modifiedBoundaries) {
+                if (boundary <= insertAt) {
+                    modifiedBefore.add(boundary);
+                }
+            }
+            Assert.assertTrue(originalBefore.size() > 0);
+            Assert.assertEquals(originalBefore, modifiedBefore);
+
+            // Once past the chunks around the insertion, the boundaries are the same, just moved by the insertion
+            long resynced = insertAt + 2 * maxSize;
+            List<Long> originalAfter = new ArrayList<>();
+            List<Long> modifiedAfter = new ArrayList<>();
+            for (long boundary : originalBoundaries) {
+                if (boundary > resynced) {
+                    originalAfter.add(boundary + inserted.length);
+                }
+            }
+            for (long boundary : modifiedBoundaries) {
+                if (boundary > resynced + inserted.length) {
+                    modifiedAfter.add(boundary);
+                }
+            }
+            Assert.assertTrue(originalAfter.size() > 0);
+            Assert.assertEquals(originalAfter, modifiedAfter);
+        } finally {
+            Files.walkFileTree(dir, new DeleteFilesVisitor());
+        }
+    }
+
+    @Test
+    public void testSplitAndMerge() throws Exception {
+        Path dir = Files.createTempDirectory("content-defined-chunker");
+        try {
+            byte[] contents = createContents(5 * MB + 789);
+            Path source = dir.resolve("source.bin");
+            Files.write(source, contents);
+
+            SplitFileUtil splitFileUtil = new SplitFileUtil(1, true);
+            Path target = dir.resolve("target.bin");
+            splitFileUtil.splitFileTo(source, target);
+            Path splitDir = SplitFileUtil.getSplitFilesDirectory(target);
+
+            List<SplitManifest.Part> parts = SplitManifest.read(splitDir).getParts();
+            Assert.assertTrue(parts.size() > 5);
+            for (SplitManifest.Part part : parts) {
+                Assert.assertTrue(part.getSize() <= MB);
+            }
+
+            splitFileUtil.mergeFilesTo(splitDir, target);
+            Assert.assertArrayEquals(contents, Files.readAllBytes(target));
+        } finally {
+            Files.walkFileTree(dir, new DeleteFilesVisitor());
+        }
+    }
+
+    private static List<Long> getChunkSizes(ContentDefinedChunker chunker, Path file) throws Exception {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return chunker.getChunkSizes(channel);
+        }
+    }
+
+    private static List<Long> getBoundaries(List<Long> sizes) {
+        List<Long> boundaries = new ArrayList<>();
+        long position = 0;
+        for (long size : sizes) {
+            position += size;
+            boundaries.add(position);
+        }
+        return boundaries;
+    }
+
+    private static byte[] createContents(int size) {
+        byte[] contents = new byte[size];
+        new Random(size).nextBytes(contents);
+        return contents;
+    }
+}
@@ -0,0 +1,153 @@
+package org.overbaard.ci.multi.repo.directory.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:kabir.khan@jboss.com">Kabir Khan</a>
+ */
+public class GrabProjectVersionTest {
+    private static final String PROPERTY = "grab.project.version.test";
+
+    @Test
+    public void testPlainVersion() throws Exception {
+        Path dir = Files.createTempDirectory("grab-project-version");
+        try {
+            Path pom = writePom(dir, "<artifactId>app</artifactId>\n<version>1.0.0</version>\n", null);
+            Assert.assertEquals("1.0.0", new GrabProjectVersion(pom).getVersion());
+        } finally {
+            Files.walkFileTree(dir, new DeleteFilesVisitor());
+        }
+    }
+
+    @Test
+    public void testCiFriendlyVersion() throws Exception {
+        Path dir = Files.createTempDirectory("grab-project-version");
+        try {
+            Files.createDirectories(dir.resolve(".mvn"));
+            Files.write(dir.resolve(".mvn/maven.config"),
+                    "-Drevision=1.2.3 -D changelist=-SNAPSHOT -B\n".getBytes(StandardCharsets.UTF_8));
+            Path pom = writePom(dir, "<artifactId>app</artifactId>\n<version>${revision}${changelist}</version>\n", null);
+            Assert.assertEquals("1.2.3-SNAPSHOT", new GrabProjectVersion(pom).getVersion());
+
+            // The closest .mvn directory is used for a module's pom too
+            Path childPom = writePom(dir.resolve("child"),
+                    parent("org.test", "parent-app", "${revision}${changelist}") + "<artifactId>child</artifactId>\n", null);
+            Assert.assertEquals("1.2.3-SNAPSHOT", new GrabProjectVersion(childPom).getVersion());
+        } finally {
+            Files.walkFileTree(dir, new DeleteFilesVisitor());
+        }
+    }
+
+    @Test
+    public void testInterpolationOrder() throws Exception {
+        Path dir = Files.createTempDirectory("grab-project-version");
+        try {
+            writePom(dir, "<artifactId>parent-app</artifactId>\n<version>1.0</version>\n", "parent");
+            Path childDir = dir.resolve("child");
+            String child = parent("org.test", "parent-app", "1.0") +
+                    "<artifactId>child</artifactId>\n<version>${" + PROPERTY + "}</version>\n";
+
+            // The parent's properties are used
+            Path childPom = writePom(childDir, child, null);
+            Assert.assertEquals("parent", new GrabProjectVersion(childPom).getVersion());
+
+            // The child's override the parent's
+            writePom(childDir, child, "child");
+            Assert.assertEquals("child", new GrabProjectVersion(childPom).getVersion());
+
+            // .mvn/maven.config overrides the poms
+            Files.createDirectories(dir.resolve(".mvn"));
+            Files.write(dir.resolve(".mvn/maven.config"), ("-D" + PROPERTY + "=config\n").getBytes(StandardCharsets.UTF_8));
+            Assert.assertEquals("config", new GrabProjectVersion(childPom).getVersion());
+
+            // System properties override everything
+            System.setProperty(PROPERTY, "system");
+            try {
+                Assert.assertEquals("system", new GrabProjectVersion(childPom).getVersion());
+            } finally {
+                System.clearProperty(PROPERTY);
+            }
+        } finally {
+            Files.walkFileTree(dir, new DeleteFilesVisitor());
+        }
+    }
+
+    @Test
+    public void testVersionFromParent() throws Exception {
+        Path dir = Files.createTempDirectory("grab-project-version");
+        try {
+            writePom(dir, "<artifactId>parent-app</artifactId>\n<version>2.0</version>\n", "parent");
+            Path childPom = writePom(dir.resolve("child"),
+                    parent("org.test", "parent-app", "${" + PROPERTY + "}") + "<artifactId>child</artifactId>\n", null);
+            Assert.assertEquals("parent", new GrabProjectVersion(childPom).getVersion());
+        } finally {
+            Files.walkFileTree(dir, new DeleteFilesVisitor());
+        }
+    }
+
+    @Test
+    public void testPomInParentLocationWhichIsNotTheParent() throws Exception {
+        Path dir = Files.createTempDirectory("grab-project-version");
+        try {
+            // The pom in the parent directory is some other project, so its properties must not be used
+            writePom(dir, "<artifactId>other</artifactId>\n<version>1.0</version>\n", "other");
+            Path childPom = writePom(dir.resolve("child"),
+                    parent("org.test", "parent-app", "1.0") +
+                            "<artifactId>child</artifactId>\n<version>${" + PROPERTY + "}</version>\n", null);
+            try {
+                new GrabProjectVersion(childPom).getVersion();
+                Assert.fail("Should not have used the properties of a pom which is not the parent");
+            } catch (IllegalStateException expected) {
+            }
+        } finally {
+            Files.walkFileTree(dir, new DeleteFilesVisitor());
+        }
+    }
+
+    @Test
+    public void testUnresolvedProperty() throws Exception {
+        Path dir = Files.createTempDirectory("grab-project-version");
+        try {
+            Path pom = writePom(dir, "<artifactId>app</artifactId>\n<version>${revision}</version>\n", null);
+            try {
+                new GrabProjectVersion(pom).getVersion();
+                Assert.fail("Should have failed with an unresolved property");
+            } catch (IllegalStateException expected) {
+            }
+        } finally {
+            Files.walkFileTree(dir, new DeleteFilesVisitor());
+        }
+    }
+
+    private static String parent(String groupId, String artifactId, String version) {
+        return "<parent>\n" +
+                "<groupId>" + groupId + "</groupId>\n" +
+                "<artifactId>" + artifactId + "</artifactId>\n" +
+                "<version>" + version + "</version>\n" +
+                "</parent>\n";
+    }
+
+    /**
+     * @param propertyValue if not {@code null}, the pom gets a {@value #PROPERTY} property with this value
+     */
+    private static Path writePom(Path dir, String contents, String propertyValue) throws Exception {
+        Files.createDirectories(dir);
+        Path pom = dir.resolve("pom.xml");
+        String properties = propertyValue == null ? "" :
+                "<properties>\n<" + PROPERTY + ">" + propertyValue + "</" + PROPERTY + ">\n</properties>\n";
+        String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+                "<project xmlns=\"http://maven.apache.org/POM/4.0.0\">\n" +
+                "<modelVersion>4.0.0</modelVersion>\n" +
+                (contents.contains("<parent>") ? "" : "<groupId>org.test</groupId>\n") +
+                contents +
+                properties +
+                "</project>\n";
+        Files.write(pom, xml.getBytes(StandardCharsets.UTF_8));
+        return pom;
+    }
+}
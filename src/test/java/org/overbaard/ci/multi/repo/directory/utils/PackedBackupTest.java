@@ -0,0 +1,150 @@
+package org.overbaard.ci.multi.repo.directory.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.maven.model.Model;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:kabir.khan@jboss.com">Kabir Khan</a>
+ */
+public class PackedBackupTest {
+    private static final int MB = 1024 * 1024;
+
+    @Test
+    public void testPackAndUnpack() throws Exception {
+        Path dir = Files.createTempDirectory("packed-backup");
+        try {
+            Path mavenRepo = dir.resolve("repo");
+            Path moduleDir = mavenRepo.resolve("org/test/app/1.0");
+            Files.createDirectories(moduleDir);
+            byte[] jar = createContents(MB + 100);
+            byte[] pom = "<project/>\n".getBytes(StandardCharsets.UTF_8);
+            Files.write(moduleDir.resolve("app-1.0.jar"), jar);
+            Files.write(moduleDir.resolve("app-1.0.pom"), pom);
+
+            Path backup = dir.resolve("backup");
+            List<ProjectArtifactInfo> infos = Collections.singletonList(createInfo("org.test", "app", "1.0"));
+            PackedBackup.pack(mavenRepo, infos, ArtifactFilter.ALL, backup);
+            Assert.assertTrue(PackedBackup.isPacked(backup));
+            Path archive = backup.resolve(PackedBackup.ARCHIVE_FILE_NAME);
+
+            long entryTime = new GregorianCalendar(1980, 0, 1).getTimeInMillis();
+            try (ZipFile zipFile = new ZipFile(archive.toFile())) {
+                Enumeration<? extends ZipEntry> entries = zipFile.entries();
+                // The directory entry comes before its files
+                Assert.assertEquals("org/test/app/1.0/", entries.nextElement().getName());
+                ZipEntry jarEntry = entries.nextElement();
+                Assert.assertEquals("org/test/app/1.0/app-1.0.jar", jarEntry.getName());
+                ZipEntry pomEntry = entries.nextElement();
+                Assert.assertEquals("org/test/app/1.0/app-1.0.pom", pomEntry.getName());
+                Assert.assertFalse(entries.hasMoreElements());
+
+                // Jars are already compressed, so they are stored without compressing them again
+                Assert.assertTrue(jarEntry.getCompressedSize() >= jarEntry.getSize());
+                Assert.assertEquals(entryTime, jarEntry.getTime());
+                Assert.assertEquals(entryTime, pomEntry.getTime());
+            }
+
+            // The same contents give an identical archive, even if the files were modified since
+            byte[] packed = Files.readAllBytes(archive);
+            Files.setLastModifiedTime(moduleDir.resolve("app-1.0.jar"), Files.getLastModifiedTime(archive));
+            PackedBackup.pack(mavenRepo, infos, ArtifactFilter.ALL, backup);
+            Assert.assertArrayEquals(packed, Files.readAllBytes(archive));
+
+            // Unpacking replaces the module's directory, and leaves other directories alone
+            Path targetRepo = dir.resolve("target-repo");
+            Path targetModuleDir = targetRepo.resolve("org/test/app/1.0");
+            Path otherModuleDir = targetRepo.resolve("org/test/other/1.0");
+            Files.createDirectories(targetModuleDir);
+            Files.createDirectories(otherModuleDir);
+            Files.write(targetModuleDir.resolve("app-1.0-old.jar"), createContents(10));
+            Files.write(otherModuleDir.resolve("other-1.0.jar"), createContents(20));
+
+            PackedBackup.unpack(backup, targetRepo);
+            assertUnpacked(targetModuleDir, jar, pom);
+            Assert.assertTrue(Files.exists(otherModuleDir.resolve("other-1.0.jar")));
+
+            // A split archive is read from its parts
+            new SplitFileUtil(1).splitFile(archive);
+            Assert.assertFalse(Files.exists(archive));
+            Assert.assertTrue(PackedBackup.isPacked(backup));
+            Files.write(targetModuleDir.resolve("app-1.0-old.jar"), createContents(10));
+            PackedBackup.unpack(backup, targetRepo);
+            assertUnpacked(targetModuleDir, jar, pom);
+        } finally {
+            Files.walkFileTree(dir, new DeleteFilesVisitor());
+        }
+    }
+
+    @Test
+    public void testUnpackEntryOutsideMavenRepo() throws Exception {
+        Path dir = Files.createTempDirectory("packed-backup");
+        try {
+            Path backup = dir.resolve("backup");
+            Files.createDirectories(backup);
+            try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(backup.resolve(PackedBackup.ARCHIVE_FILE_NAME)))) {
+                zip.putNextEntry(new ZipEntry("org/test/app/1.0/"));
+                zip.closeEntry();
+                writeEntry(zip, "org/test/app/1.0/app-1.0.pom");
+                writeEntry(zip, "org/test/../../../evil.txt");
+            }
+
+            Path targetRepo = dir.resolve("repo");
+            Files.createDirectories(targetRepo);
+            try {
+                PackedBackup.unpack(backup, targetRepo);
+                Assert.fail("Should have failed unpacking an entry outside the maven repository");
+            } catch (IllegalStateException expected) {
+            }
+            Assert.assertTrue(Files.exists(targetRepo.resolve("org/test/app/1.0/app-1.0.pom")));
+            Assert.assertFalse(Files.exists(dir.resolve("evil.txt")));
+        } finally {
+            Files.walkFileTree(dir, new DeleteFilesVisitor());
+        }
+    }
+
+    private static void assertUnpacked(Path moduleDir, byte[] jar, byte[] pom) throws Exception {
+        List<Path> files;
+        try (Stream<Path> stream = Files.list(moduleDir)) {
+            files = stream.sorted().collect(Collectors.toList());
+        }
+        Assert.assertEquals(Arrays.asList(moduleDir.resolve("app-1.0.jar"), moduleDir.resolve("app-1.0.pom")), files);
+        Assert.assertArrayEquals(jar, Files.readAllBytes(moduleDir.resolve("app-1.0.jar")));
+        Assert.assertArrayEquals(pom, Files.readAllBytes(moduleDir.resolve("app-1.0.pom")));
+    }
+
+    private static void writeEntry(ZipOutputStream zip, String name) throws Exception {
+        zip.putNextEntry(new ZipEntry(name));
+        zip.write(name.getBytes(StandardCharsets.UTF_8));
+        zip.closeEntry();
+    }
+
+    private static ProjectArtifactInfo createInfo(String groupId, String artifactId, String version) {
+        Model model = new Model();
+        model.setGroupId(groupId);
+        model.setArtifactId(artifactId);
+        model.setVersion(version);
+        return ProjectArtifactInfo.create(model);
+    }
+
+    private static byte[] createContents(int size) {
+        byte[] contents = new byte[size];
+        new Random(size).nextBytes(contents);
+        return contents;
+    }
+}
@@ -0,0 +1,52 @@
+package org.overbaard.ci.multi.repo.directory.utils;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.apache.maven.model.Model;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:kabir.khan@jboss.com">Kabir Khan</a>
+ */
+public class PomModelReaderTest {
+    private static final String NAME = "Caf\u00e9 \u00fcber \u00e5";
+
+    @Test
+    public void testEncodingFromDeclaration() throws Exception {
+        checkEncoding("<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?>\n", StandardCharsets.ISO_8859_1);
+        checkEncoding("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n", StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testDefaultEncodingIsUtf8() throws Exception {
+        checkEncoding("<?xml version=\"1.0\"?>\n", StandardCharsets.UTF_8);
+        checkEncoding("", StandardCharsets.UTF_8);
+    }
+
+    private static void checkEncoding(String declaration, Charset charset) throws Exception {
+        Path dir = Files.createTempDirectory("pom-model-reader");
+        try {
+            Path pom = dir.resolve("pom.xml");
+            String contents = declaration +
+                    "<project xmlns=\"http://maven.apache.org/POM/4.0.0\">\n" +
+                    "<modelVersion>4.0.0</modelVersion>\n" +
+                    "<groupId>org.test</groupId>\n" +
+                    "<artifactId>app</artifactId>\n" +
+                    "<version>1.0</version>\n" +
+                    "<name>" + NAME + "</name>\n" +
+                    "</project>\n";
+            Files.write(pom, contents.getBytes(charset));
+
+            Model model = PomModelReader.readModel(pom);
+            Assert.assertEquals("app", model.getArtifactId());
+            Assert.assertEquals(NAME, model.getName());
+            Assert.assertEquals(pom.toFile(), model.getPomFile());
+        } finally {
+            Files.walkFileTree(dir, new DeleteFilesVisitor());
+        }
+    }
+}
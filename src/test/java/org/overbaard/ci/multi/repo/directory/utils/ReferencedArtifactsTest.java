@@ -0,0 +1,71 @@
+package org.overbaard.ci.multi.repo.directory.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:kabir.khan@jboss.com">Kabir Khan</a>
+ */
+public class ReferencedArtifactsTest {
+
+    @Test
+    public void testManagedDependencyReachedViaArtifactNotBackedUp() throws Exception {
+        Path dir = Files.createTempDirectory("referenced-artifacts");
+        try {
+            // The consumer only depends on a third party artifact, which in turn depends on upstream's core.
+            // The consumer pins the upstream snapshot in its dependencyManagement
+            Path projectPom = dir.resolve("consumer/pom.xml");
+            writePom(projectPom,
+                    "<groupId>org.consumer</groupId>\n" +
+                    "<artifactId>consumer</artifactId>\n" +
+                    "<version>1.0.0-SNAPSHOT</version>\n" +
+                    "<dependencyManagement>\n" +
+                    "  <dependencies>\n" +
+                    "    <dependency>\n" +
+                    "      <groupId>org.upstream</groupId>\n" +
+                    "      <artifactId>upstream-core</artifactId>\n" +
+                    "      <version>2.0.0-SNAPSHOT</version>\n" +
+                    "    </dependency>\n" +
+                    "  </dependencies>\n" +
+                    "</dependencyManagement>\n" +
+                    "<dependencies>\n" +
+                    "  <dependency>\n" +
+                    "    <groupId>org.thirdparty</groupId>\n" +
+                    "    <artifactId>thirdparty-lib</artifactId>\n" +
+                    "    <version>1.0.0</version>\n" +
+                    "  </dependency>\n" +
+                    "</dependencies>\n");
+
+            Path componentBackup = dir.resolve("backups/upstream");
+            writePom(componentBackup.resolve("org/upstream/upstream-core/2.0.0-SNAPSHOT/upstream-core-2.0.0-SNAPSHOT.pom"),
+                    "<groupId>org.upstream</groupId>\n" +
+                    "<artifactId>upstream-core</artifactId>\n" +
+                    "<version>2.0.0-SNAPSHOT</version>\n");
+            writePom(componentBackup.resolve("org/upstream/upstream-other/2.0.0-SNAPSHOT/upstream-other-2.0.0-SNAPSHOT.pom"),
+                    "<groupId>org.upstream</groupId>\n" +
+                    "<artifactId>upstream-other</artifactId>\n" +
+                    "<version>2.0.0-SNAPSHOT</version>\n");
+
+            Set<String> selected = ReferencedArtifacts.find(projectPom, Collections.singletonList(componentBackup), null);
+            Assert.assertEquals(Collections.singleton("org/upstream/upstream-core/2.0.0-SNAPSHOT"), selected);
+        } finally {
+            Files.walkFileTree(dir, new DeleteFilesVisitor());
+        }
+    }
+
+    private static void writePom(Path path, String contents) throws Exception {
+        Files.createDirectories(path.getParent());
+        String pom = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+                "<project xmlns=\"http://maven.apache.org/POM/4.0.0\">\n" +
+                "<modelVersion>4.0.0</modelVersion>\n" +
+                contents +
+                "</project>\n";
+        Files.write(path, pom.getBytes(StandardCharsets.UTF_8));
+    }
+}
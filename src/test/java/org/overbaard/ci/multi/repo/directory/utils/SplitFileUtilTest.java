@@ -0,0 +1,218 @@
+package org.overbaard.ci.multi.repo.directory.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:kabir.khan@jboss.com">Kabir Khan</a>
+ */
+public class SplitFileUtilTest {
+    private static final int MB = 1024 * 1024;
+
+    @Test
+    public void testSplitAndMerge() throws Exception {
+        Path dir = Files.createTempDirectory("split-file-util");
+        try {
+            byte[] contents = createContents(3 * MB + 12345);
+            Path source = dir.resolve("source.bin");
+            Files.write(source, contents);
+
+            SplitFileUtil splitFileUtil = new SplitFileUtil(1);
+            Path target = dir.resolve("target.bin");
+            splitFileUtil.splitFileTo(source, target);
+            Assert.assertFalse(Files.exists(target));
+            Path splitDir = SplitFileUtil.getSplitFilesDirectory(target);
+            Assert.assertTrue(SplitFileUtil.isSplitFilesDirectory(splitDir));
+
+            SplitManifest manifest = SplitManifest.read(splitDir);
+            Assert.assertTrue(manifest.isVerifiable());
+            Assert.assertEquals(contents.length, manifest.getSize());
+            Assert.assertEquals(Sha256.hash(source), manifest.getHash());
+            List<SplitManifest.Part> parts = manifest.getParts();
+            Assert.assertEquals(4, parts.size());
+            for (int i = 0; i < parts.size(); i++) {
+                SplitManifest.Part part = parts.get(i);
+                Assert.assertEquals(SplitFileUtil.createFileNameForIndex(i, 2), part.getName());
+                Assert.assertEquals(i < 3 ? MB : 12345, part.getSize());
+                Assert.assertEquals(part.getSize(), Files.size(splitDir.resolve(part.getName())));
+            }
+
+            splitFileUtil.mergeFilesTo(splitDir, target, false);
+            Assert.assertArrayEquals(contents, Files.readAllBytes(target));
+            Files.delete(target);
+            splitFileUtil.mergeFilesTo(splitDir, target, true);
+            Assert.assertArrayEquals(contents, Files.readAllBytes(target));
+            Assert.assertTrue(Files.exists(splitDir));
+
+            // Merging next to the split directory removes it
+            splitFileUtil.mergeFiles(splitDir);
+            Assert.assertArrayEquals(contents, Files.readAllBytes(target));
+            Assert.assertFalse(Files.exists(splitDir));
+        } finally {
+            Files.walkFileTree(dir, new DeleteFilesVisitor());
+        }
+    }
+
+    @Test
+    public void testSplitFileInPlace() throws Exception {
+        Path dir = Files.createTempDirectory("split-file-util");
+        try {
+            byte[] small = createContents(MB);
+            byte[] large = createContents(MB + 1);
+            Path smallFile = dir.resolve("small.bin");
+            Path largeFile = dir.resolve("large.bin");
+            Files.write(smallFile, small);
+            Files.write(largeFile, large);
+
+            SplitFileUtil splitFileUtil = new SplitFileUtil(1);
+            splitFileUtil.splitFile(smallFile);
+            splitFileUtil.splitFile(largeFile);
+            Assert.assertArrayEquals(small, Files.readAllBytes(smallFile));
+            Assert.assertFalse(Files.exists(SplitFileUtil.getSplitFilesDirectory(smallFile)));
+            Assert.assertFalse(Files.exists(largeFile));
+
+            splitFileUtil.mergeFiles(SplitFileUtil.getSplitFilesDirectory(largeFile));
+            Assert.assertArrayEquals(large, Files.readAllBytes(largeFile));
+        } finally {
+            Files.walkFileTree(dir, new DeleteFilesVisitor());
+        }
+    }
+
+    @Test
+    public void testResumeMerge() throws Exception {
+        Path dir = Files.createTempDirectory("split-file-util");
+        try {
+            byte[] contents = createContents(3 * MB);
+            Path file = dir.resolve("file.bin");
+            Files.write(file, contents);
+            SplitFileUtil splitFileUtil = new SplitFileUtil(1);
+            splitFileUtil.splitFile(file);
+            Path splitDir = SplitFileUtil.getSplitFilesDirectory(file);
+
+            // Simulate a merge which was interrupted after the first part was merged and removed
+            byte[] interrupted = Arrays.copyOf(contents, contents.length);
+            Arrays.fill(interrupted, MB, interrupted.length, (byte) 0);
+            Files.write(file, interrupted);
+            Files.delete(splitDir.resolve(SplitFileUtil.createFileNameForIndex(0, 2)));
+
+            splitFileUtil.mergeFiles(splitDir);
+            Assert.assertArrayEquals(contents, Files.readAllBytes(file));
+            Assert.assertFalse(Files.exists(splitDir));
+        } finally {
+            Files.walkFileTree(dir, new DeleteFilesVisitor());
+        }
+    }
+
+    @Test
+    public void testMergeCorruptedPart() throws Exception {
+        Path dir = Files.createTempDirectory("split-file-util");
+        try {
+            Path source = dir.resolve("source.bin");
+            Files.write(source, createContents(2 * MB));
+            SplitFileUtil splitFileUtil = new SplitFileUtil(1);
+            Path target = dir.resolve("target.bin");
+            splitFileUtil.splitFileTo(source, target);
+            Path splitDir = SplitFileUtil.getSplitFilesDirectory(target);
+
+            Path part = splitDir.resolve(SplitFileUtil.createFileNameForIndex(1, 2));
+            byte[] bytes = Files.readAllBytes(part);
+            bytes[100]++;
+            Files.write(part, bytes);
+
+            try {
+                splitFileUtil.mergeFilesTo(splitDir, target);
+                Assert.fail("Should have failed merging a corrupted part");
+            } catch (IllegalStateException expected) {
+            }
+        } finally {
+            Files.walkFileTree(dir, new DeleteFilesVisitor());
+        }
+    }
+
+    @Test
+    public void testMergePartsInWrongOrder() throws Exception {
+        Path dir = Files.createTempDirectory("split-file-util");
+        try {
+            Path source = dir.resolve("source.bin");
+            Files.write(source, createContents(3 * MB));
+            SplitFileUtil splitFileUtil = new SplitFileUtil(1);
+            Path target = dir.resolve("target.bin");
+            splitFileUtil.splitFileTo(source, target);
+            Path splitDir = SplitFileUtil.getSplitFilesDirectory(target);
+
+            // Swap the lines of two parts of the same size. Each part still matches its own size and hash
+            Path manifestFile = splitDir.resolve(SplitManifest.FILE_NAME);
+            List<String> lines = Files.readAllLines(manifestFile, StandardCharsets.UTF_8);
+            Collections.swap(lines, 0, 1);
+            Files.write(manifestFile, lines, StandardCharsets.UTF_8);
+
+            try {
+                splitFileUtil.mergeFilesTo(splitDir, target);
+                Assert.fail("Should have failed merging parts in the wrong order");
+            } catch (IllegalStateException expected) {
+            }
+        } finally {
+            Files.walkFileTree(dir, new DeleteFilesVisitor());
+        }
+    }
+
+    @Test
+    public void testMergeSplitDirectoryWithoutManifest() throws Exception {
+        Path dir = Files.createTempDirectory("split-file-util");
+        try {
+            // Split directories from before the manifest was added only have the parts with two digit names
+            Path target = dir.resolve("legacy.bin");
+            Path splitDir = SplitFileUtil.getSplitFilesDirectory(target);
+            Files.createDirectories(splitDir);
+            byte[] contents = createContents(1000);
+            Files.write(splitDir.resolve("xx.00"), Arrays.copyOfRange(contents, 0, 400));
+            Files.write(splitDir.resolve("xx.01"), Arrays.copyOfRange(contents, 400, 800));
+            Files.write(splitDir.resolve("xx.02"), Arrays.copyOfRange(contents, 800, 1000));
+
+            SplitManifest manifest = SplitManifest.read(splitDir);
+            Assert.assertFalse(manifest.isVerifiable());
+            Assert.assertEquals(3, manifest.getParts().size());
+
+            new SplitFileUtil().mergeFiles(splitDir);
+            Assert.assertArrayEquals(contents, Files.readAllBytes(target));
+        } finally {
+            Files.walkFileTree(dir, new DeleteFilesVisitor());
+        }
+    }
+
+    @Test
+    public void testMergeWithoutParts() throws Exception {
+        Path dir = Files.createTempDirectory("split-file-util");
+        try {
+            Path target = dir.resolve("target.bin");
+            byte[] contents = createContents(1000);
+            Files.write(target, contents);
+            Path splitDir = SplitFileUtil.getSplitFilesDirectory(target);
+            Files.createDirectories(splitDir);
+
+            try {
+                new SplitFileUtil().mergeFilesTo(splitDir, target);
+                Assert.fail("Should have failed merging a split directory without any parts");
+            } catch (IllegalStateException expected) {
+            }
+            // The target was left alone rather than being truncated
+            Assert.assertArrayEquals(contents, Files.readAllBytes(target));
+        } finally {
+            Files.walkFileTree(dir, new DeleteFilesVisitor());
+        }
+    }
+
+    private static byte[] createContents(int size) {
+        byte[] contents = new byte[size];
+        new Random(size).nextBytes(contents);
+        return contents;
+    }
+}
@@ -0,0 +1,81 @@
+package org.overbaard.ci.multi.repo.directory.utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Compares merging split files with {@link java.nio.channels.FileChannel#transferFrom} against copying the parts
+ * into a memory mapping of the merged file, which is what {@link SplitFileUtil#MAPPED_MERGE_MIN_SIZE} is based on.
+ * This is not run as part of the build. Run it with
+ * <pre>
+ * java -cp target/classes:target/test-classes org.overbaard.ci.multi.repo.directory.utils.SplitMergeBenchmark [sizes in MB]
+ * </pre>
+ * Since the parts were just written, they will mostly be in the page cache. That is also the case in the CI jobs,
+ * where the parts have just been checked out.
+ *
+ * @author <a href="mailto:kabir.khan@jboss.com">Kabir Khan</a>
+ */
+public class SplitMergeBenchmark {
+    private static final int ITERATIONS = 5;
+
+    public static void main(String[] args) throws Exception {
+        String[] sizes = args.length > 0 ? args : new String[]{"4", "8", "16", "32", "64", "128", "256", "512", "1024", "2048"};
+        Path dir = Files.createTempDirectory("split-merge-benchmark");
+        try {
+            for (String size : sizes) {
+                benchmark(dir, Integer.parseInt(size));
+            }
+        } finally {
+            Files.walkFileTree(dir, new DeleteFilesVisitor());
+        }
+    }
+
+    private static void benchmark(Path dir, int sizeMb) throws IOException {
+        Path file = dir.resolve("file-" + sizeMb + ".bin");
+        writeRandomFile(file, sizeMb * 1024L * 1024L);
+        // Files smaller than the default split size only get split with a smaller --split-size-mb, so use a
+        // quarter of the file size for those
+        int splitSizeMb = sizeMb > SplitFileUtil.DEFAULT_MAX_SIZE_MB ? SplitFileUtil.DEFAULT_MAX_SIZE_MB : Math.max(1, sizeMb / 4);
+        SplitFileUtil splitFileUtil = new SplitFileUtil(splitSizeMb);
+        splitFileUtil.splitFile(file);
+        Path splitDir = SplitFileUtil.getSplitFilesDirectory(file);
+
+        // Alternate between the two, so that neither benefits more from anything the other leaves cached
+        long channelNanos = 0;
+        long mappedNanos = 0;
+        for (int i = 0; i < ITERATIONS + 1; i++) {
+            long channel = merge(splitFileUtil, splitDir, file, false);
+            long mapped = merge(splitFileUtil, splitDir, file, true);
+            if (i > 0) {
+                // The first round is a warm up
+                channelNanos += channel;
+                mappedNanos += mapped;
+            }
+        }
+        System.out.println(String.format("BENCHMARK %5dMB: transferFrom %6dms, mapped %6dms",
+                sizeMb, channelNanos / ITERATIONS / 1000000, mappedNanos / ITERATIONS / 1000000));
+        Files.walkFileTree(splitDir, new DeleteFilesVisitor());
+    }
+
+    private static long merge(SplitFileUtil splitFileUtil, Path splitDir, Path file, boolean mapped) throws IOException {
+        // Delete the file first so that the merge does not skip parts which are already there
+        Files.deleteIfExists(file);
+        long start = System.nanoTime();
+        splitFileUtil.mergeFilesTo(splitDir, file, mapped);
+        return System.nanoTime() - start;
+    }
+
+    private static void writeRandomFile(Path file, long size) throws IOException {
+        Random random = new Random(size);
+        byte[] buffer = new byte[1024 * 1024];
+        try (OutputStream out = Files.newOutputStream(file)) {
+            for (long written = 0; written < size; written += buffer.length) {
+                random.nextBytes(buffer);
+                out.write(buffer, 0, (int) Math.min(buffer.length, size - written));
+            }
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package org.overbaard.ci.multi.repo.generator;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.yaml.snakeyaml.Yaml;
+
+/**
+ * @author <a href="mailto:kabir.khan@jboss.com">Kabir Khan</a>
+ */
+public class GitHubActionGeneratorTest {
+
+    @Test
+    public void testImpliedNeedsAreDropped() throws Exception {
+        Map<String, Object> jobs = generateJobs("issue-chained-components.yml");
+
+        // Only the first component's build job needs the cancel job directly; the others get it via their dependencies
+        Assert.assertEquals(Collections.singletonList(GitHubActionGenerator.CANCEL_PREVIOUS_RUNS_JOB_NAME), getNeeds(jobs, "comp-a-build"));
+        Assert.assertEquals(Collections.singletonList("comp-a-build"), getNeeds(jobs, "comp-b-build"));
+        List<String> cNeeds = getNeeds(jobs, "comp-c-build");
+        Assert.assertFalse(cNeeds.contains(GitHubActionGenerator.CANCEL_PREVIOUS_RUNS_JOB_NAME));
+        Assert.assertTrue(cNeeds.contains("comp-b-build"));
+
+        // Only comp-b-ts and comp-c-build are not needed by other jobs
+        Assert.assertEquals(Arrays.asList("comp-b-ts", "comp-c-build"), getNeeds(jobs, GitHubActionGenerator.STATUS_OUTPUT_JOB_NAME));
+        Assert.assertEquals(Collections.singletonList("ob-ci-status-failure"), getNeeds(jobs, "ob-ci-cleanup"));
+    }
+
+    @Test
+    public void testNeedsWithReferencedOutputsAreKept() throws Exception {
+        Map<String, Object> jobs = generateJobs("issue-chained-components.yml");
+
+        // comp-c-build gets comp-a's version from its outputs, even though comp-b-build already needs comp-a-build
+        Assert.assertEquals(Arrays.asList("comp-a-build", "comp-b-build"), getNeeds(jobs, "comp-c-build"));
+
+        // The status jobs use the outputs of the build jobs and of the status output job, although
+        // the status output job already needs them
+        List<String> expected = Arrays.asList("comp-a-build", "comp-b-build", "comp-c-build", GitHubActionGenerator.STATUS_OUTPUT_JOB_NAME);
+        Assert.assertEquals(expected, getNeeds(jobs, "ob-ci-status-success"));
+        List<String> failureNeeds = getNeeds(jobs, "ob-ci-status-failure");
+        Assert.assertEquals(expected, failureNeeds.subList(0, expected.size()));
+        Assert.assertEquals(Collections.singletonList("ob-ci-status-success"), failureNeeds.subList(expected.size(), failureNeeds.size()));
+    }
+
+    private Map<String, Object> generateJobs(String issueYaml) throws Exception {
+        URL url = this.getClass().getResource(issueYaml);
+        Path yaml = Paths.get(url.toURI());
+        Path dir = Files.createTempDirectory("github-action-generator");
+        try {
+            // The status reporting jobs are only added when there are labels to set
+            writeFile(dir.resolve(GitHubActionGenerator.REPO_CONFIG_FILE),
+                    "issue-reporting:\n" +
+                    "  labels:\n" +
+                    "    success: Passed\n" +
+                    "    failure: Failed\n");
+            writeFile(dir.resolve(GitHubActionGenerator.COMPONENT_JOBS_DIR).resolve("comp-b.yml"),
+                    "build-job: build\n" +
+                    "jobs:\n" +
+                    "  build:\n" +
+                    "    run:\n" +
+                    "      - mvn: install -DskipTests\n" +
+                    "  ts:\n" +
+                    "    needs: [build]\n" +
+                    "    run:\n" +
+                    "      - mvn: package -pl tests\n");
+
+            GitHubActionGenerator.create(new String[]{
+                    "--workflow-dir=" + dir,
+                    "--yaml=" + yaml,
+                    "--branch=test",
+                    "--issue=1"}, dir).generate();
+            try (Reader reader = Files.newBufferedReader(dir.resolve("ci-1.yml"), StandardCharsets.UTF_8)) {
+                Map<String, Object> workflow = new Yaml().load(reader);
+                return (Map<String, Object>) workflow.get("jobs");
+            }
+        } finally {
+            Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    Files.delete(file);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                    Files.delete(dir);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+    }
+
+    private static void writeFile(Path path, String contents) throws IOException {
+        Files.createDirectories(path.getParent());
+        Files.write(path, contents.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static List<String> getNeeds(Map<String, Object> jobs, String jobName) {
+        Map<String, Object> job = (Map<String, Object>) jobs.get(jobName);
+        Assert.assertNotNull(jobName, job);
+        return (List<String>) job.get("needs");
+    }
+}
@@ -0,0 +1,66 @@
+package org.overbaard.ci.multi.repo.generator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:kabir.khan@jboss.com">Kabir Khan</a>
+ */
+public class JobDependencyGraphTest {
+
+    @Test
+    public void testReduceNeeds() {
+        Map<String, Object> jobs = new LinkedHashMap<>();
+        addJob(jobs, "cancel-previous-runs");
+        addJob(jobs, "b-build", "cancel-previous-runs");
+        addJob(jobs, "b-ts", "b-build");
+        addJob(jobs, "c-build", "cancel-previous-runs", "b-build", "b-ts");
+
+        new JobDependencyGraph(jobs).reduceNeeds();
+
+        Assert.assertNull(((Map<String, Object>) jobs.get("cancel-previous-runs")).get("needs"));
+        Assert.assertEquals(Collections.singletonList("cancel-previous-runs"), getNeeds(jobs, "b-build"));
+        Assert.assertEquals(Collections.singletonList("b-build"), getNeeds(jobs, "b-ts"));
+        Assert.assertEquals(Collections.singletonList("b-ts"), getNeeds(jobs, "c-build"));
+    }
+
+    @Test
+    public void testReduceNeedsKeepsReferencedNeeds() {
+        Map<String, Object> jobs = new LinkedHashMap<>();
+        addJob(jobs, "b-build");
+        addJob(jobs, "b-ts", "b-build");
+        Map<String, Object> cBuild = addJob(jobs, "c-build", "b-build", "b-ts");
+        cBuild.put("env", Collections.singletonMap("OB_VERSION_B", "${{ needs.b-build.outputs.version_b }}"));
+        // A job named like the start of another is not referenced by it
+        addJob(jobs, "d-build", "b", "b-ts");
+        addJob(jobs, "b");
+        ((Map<String, Object>) jobs.get("b-build")).put("needs", new ArrayList<>(Collections.singletonList("b")));
+        ((Map<String, Object>) jobs.get("d-build")).put("steps",
+                Collections.singletonList(Collections.singletonMap("run", "echo ${{ needs.b-build.result }}")));
+
+        new JobDependencyGraph(jobs).reduceNeeds();
+
+        Assert.assertEquals(Arrays.asList("b-build", "b-ts"), getNeeds(jobs, "c-build"));
+        Assert.assertEquals(Collections.singletonList("b-ts"), getNeeds(jobs, "d-build"));
+    }
+
+    private static Map<String, Object> addJob(Map<String, Object> jobs, String name, String... needs) {
+        Map<String, Object> job = new LinkedHashMap<>();
+        if (needs.length > 0) {
+            job.put("needs", new ArrayList<>(Arrays.asList(needs)));
+        }
+        jobs.put(name, job);
+        return job;
+    }
+
+    private static List<String> getNeeds(Map<String, Object> jobs, String jobName) {
+        return (List<String>) ((Map<String, Object>) jobs.get(jobName)).get("needs");
+    }
+}
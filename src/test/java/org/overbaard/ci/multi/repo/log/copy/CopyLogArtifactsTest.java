@@ -0,0 +1,198 @@
+package org.overbaard.ci.multi.repo.log.copy;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:kabir.khan@jboss.com">Kabir Khan</a>
+ */
+public class CopyLogArtifactsTest {
+
+    @Test
+    public void testScan() throws Exception {
+        Path dir = Files.createTempDirectory("copy-log-artifacts");
+        try {
+            Path input = dir.resolve("checkout");
+            write(input.resolve("build.log"), "build");
+            write(input.resolve("module/target/test.log"), "test");
+            write(input.resolve("module/target/jvm.dumpstream"), "dump");
+            write(input.resolve("module/target/ignored.log"), "ignored");
+            write(input.resolve("module/target/readme.txt"), "not a log");
+            write(input.resolve("module/target/surefire-reports/TEST-Failed.xml"), report(1, 0));
+            write(input.resolve("module/target/surefire-reports/TEST-Passed.xml"), report(0, 0));
+            write(input.resolve("module/target/surefire-reports/TEST-Invalid.xml"), "not xml");
+            write(input.resolve("module/target/failsafe-reports/TEST-Error.xml"), report(0, 1));
+            write(input.resolve("module/target/failsafe-reports/TEST-Passed.xml"), report(0, 0));
+            // TEST reports outside of the report directories are treated like any other file
+            write(input.resolve("module/target/TEST-Failed.xml"), report(1, 0));
+            // Pruned directories
+            write(input.resolve("module/target/classes/pruned.log"), "pruned");
+            write(input.resolve("node_modules/pruned.log"), "pruned");
+            write(input.resolve(".ci-tools/repo-backups/pruned.log"), "pruned");
+            write(input.resolve(".ci-tools/other.log"), "other");
+            write(input.resolve("custom/pruned.log"), "pruned");
+            // The output directory is inside the checkout, and should not have its files copied again
+            Path output = input.resolve("logs");
+            write(output.resolve("existing.log"), "existing");
+
+            CopyLogArtifacts.copy(new String[]{
+                    CopyLogArtifacts.ARG_EXCLUDE + "=ignored.log",
+                    CopyLogArtifacts.ARG_PRUNE + "=.ci-tools/repo-backups,**/custom",
+                    input.toString(), output.toString()});
+
+            Assert.assertEquals(Arrays.asList(
+                    ".ci-tools/other.log",
+                    "build.log",
+                    "existing.log",
+                    "module/target/failsafe-reports/TEST-Error.xml",
+                    "module/target/jvm.dumpstream",
+                    "module/target/surefire-reports/TEST-Failed.xml",
+                    "module/target/surefire-reports/TEST-Invalid.xml",
+                    "module/target/test.log"),
+                    listFiles(output));
+            Assert.assertEquals("build", read(output.resolve("build.log")));
+        } finally {
+            delete(dir);
+        }
+    }
+
+    @Test
+    public void testMaxSizePrioritisesFailedModules() throws Exception {
+        Path dir = Files.createTempDirectory("copy-log-artifacts");
+        try {
+            Path input = dir.resolve("checkout");
+            write(input.resolve("a-passed/target/passed.log"), new byte[400 * 1024]);
+            write(input.resolve("build.log"), "build");
+            write(input.resolve("x-failed/target/failed.log"), new byte[400 * 1024]);
+            write(input.resolve("x-failed/target/surefire-reports/TEST-Failed.xml"), report(1, 0) + pad(400 * 1024));
+            Path output = dir.resolve("logs");
+
+            CopyLogArtifacts.copy(new String[]{CopyLogArtifacts.ARG_MAX_SIZE_MB + "=1", input.toString(), output.toString()});
+
+            // The report comes first, then the rest of its module, and then the other files in their original order
+            Assert.assertEquals(Arrays.asList(
+                    "build.log",
+                    CopyLogArtifacts.SUMMARY_FILE_NAME,
+                    "x-failed/target/failed.log",
+                    "x-failed/target/surefire-reports/TEST-Failed.xml"),
+                    listFiles(output));
+            Assert.assertEquals("left out a-passed/target/passed.log (409600 bytes)\n",
+                    read(output.resolve(CopyLogArtifacts.SUMMARY_FILE_NAME)).replace('\\', '/'));
+        } finally {
+            delete(dir);
+        }
+    }
+
+    @Test
+    public void testMaxSizeWithReportsOutsideTarget() throws Exception {
+        Path dir = Files.createTempDirectory("copy-log-artifacts");
+        try {
+            // The module of reports which are not in a target directory is the directory containing them. Here
+            // that is the input directory, and the module must not be taken to be the directory above it
+            Path input = dir.resolve("checkout");
+            write(input.resolve("a-passed/target/passed.log"), new byte[400 * 1024]);
+            write(input.resolve("surefire-reports/TEST-Failed.xml"), report(1, 0));
+            write(input.resolve("x-failed/surefire-reports/TEST-Failed.xml"), report(1, 0));
+            write(input.resolve("x-failed/failed.log"), new byte[400 * 1024]);
+            write(input.resolve("b-passed/target/passed.log"), new byte[400 * 1024]);
+            Path output = dir.resolve("logs");
+
+            CopyLogArtifacts.copy(new String[]{CopyLogArtifacts.ARG_MAX_SIZE_MB + "=1", input.toString(), output.toString()});
+
+            // Everything is in the module of the top level report, so after the reports the files are taken in
+            // their original order
+            Assert.assertEquals(Arrays.asList(
+                    "a-passed/target/passed.log",
+                    "b-passed/target/passed.log",
+                    CopyLogArtifacts.SUMMARY_FILE_NAME,
+                    "surefire-reports/TEST-Failed.xml",
+                    "x-failed/surefire-reports/TEST-Failed.xml"),
+                    listFiles(output));
+
+            // Without the top level report, the module with the failed report comes first. Taking its module to be
+            // two levels up, as for reports in target, would make that the input directory again
+            delete(output);
+            Files.delete(input.resolve("surefire-reports/TEST-Failed.xml"));
+            CopyLogArtifacts.copy(new String[]{CopyLogArtifacts.ARG_MAX_SIZE_MB + "=1", input.toString(), output.toString()});
+            Assert.assertEquals(Arrays.asList(
+                    "a-passed/target/passed.log",
+                    CopyLogArtifacts.SUMMARY_FILE_NAME,
+                    "x-failed/failed.log",
+                    "x-failed/surefire-reports/TEST-Failed.xml"),
+                    listFiles(output));
+        } finally {
+            delete(dir);
+        }
+    }
+
+    private static String pad(int length) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<!--");
+        for (int i = 0; i < length; i++) {
+            sb.append(' ');
+        }
+        sb.append("-->\n");
+        return sb.toString();
+    }
+
+    static String report(int failures, int errors) {
+        return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+                "<testsuite name=\"Test\" tests=\"2\" failures=\"" + failures + "\" errors=\"" + errors + "\">\n" +
+                "<testcase name=\"test\"/>\n" +
+                "</testsuite>\n";
+    }
+
+    static void write(Path file, String contents) throws IOException {
+        write(file, contents.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static void write(Path file, byte[] contents) throws IOException {
+        Files.createDirectories(file.getParent());
+        Files.write(file, contents);
+    }
+
+    static String read(Path file) throws IOException {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+
+    static List<String> listFiles(Path dir) throws IOException {
+        List<String> files = new ArrayList<>();
+        try (Stream<Path> stream = Files.walk(dir)) {
+            for (Path file : stream.filter(Files::isRegularFile).collect(Collectors.toList())) {
+                files.add(dir.relativize(file).toString().replace('\\', '/'));
+            }
+        }
+        Collections.sort(files);
+        return files;
+    }
+
+    static void delete(Path dir) throws IOException {
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
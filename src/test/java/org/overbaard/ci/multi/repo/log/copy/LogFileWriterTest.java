@@ -0,0 +1,88 @@
+package org.overbaard.ci.multi.repo.log.copy;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:kabir.khan@jboss.com">Kabir Khan</a>
+ */
+public class LogFileWriterTest {
+
+    @Test
+    public void testSizes() {
+        LogFileWriter writer = new LogFileWriter(10, 20);
+        Assert.assertFalse(writer.isTruncated(0));
+        Assert.assertFalse(writer.isTruncated(30));
+        Assert.assertTrue(writer.isTruncated(31));
+        Assert.assertEquals(30, writer.getCopiedSize(30));
+        Assert.assertEquals(30, writer.getCopiedSize(31));
+        Assert.assertEquals(30, writer.getCopiedSize(1000000));
+        Assert.assertEquals(5, writer.getCopiedSize(5));
+
+        Assert.assertFalse(LogFileWriter.NO_TRUNCATION.isTruncated(Long.MAX_VALUE));
+        Assert.assertEquals(Long.MAX_VALUE, LogFileWriter.NO_TRUNCATION.getCopiedSize(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testForMaxFileSize() throws Exception {
+        // With an odd size the extra byte goes to the tail
+        LogFileWriter writer = LogFileWriter.forMaxFileSize(11);
+        Assert.assertFalse(writer.isTruncated(11));
+        Assert.assertTrue(writer.isTruncated(12));
+        Assert.assertEquals(11, writer.getCopiedSize(100));
+        Assert.assertEquals("abcde" + marker(89, 100) + "vwxyz0",
+                write(writer, "abcde" + pad(89) + "vwxyz0"));
+
+        writer = LogFileWriter.forMaxFileSize(1);
+        Assert.assertEquals(1, writer.getCopiedSize(100));
+        Assert.assertEquals(marker(2, 3) + "c", write(writer, "abc"));
+
+        writer = LogFileWriter.forMaxFileSize(0);
+        Assert.assertTrue(writer.isTruncated(1));
+        Assert.assertEquals(0, writer.getCopiedSize(100));
+        Assert.assertEquals(marker(3, 3), write(writer, "abc"));
+    }
+
+    @Test
+    public void testWrite() throws Exception {
+        LogFileWriter writer = new LogFileWriter(3, 2);
+        Assert.assertEquals("abcde", write(writer, "abcde"));
+        Assert.assertEquals("abc" + marker(1, 6) + "ef", write(writer, "abcdef"));
+
+        // Just the head or the tail
+        Assert.assertEquals("abc" + marker(3, 6), write(new LogFileWriter(3, 0), "abcdef"));
+        Assert.assertEquals(marker(4, 6) + "ef", write(new LogFileWriter(0, 2), "abcdef"));
+
+        Assert.assertEquals("abcdef", write(LogFileWriter.NO_TRUNCATION, "abcdef"));
+    }
+
+    private static String marker(long skipped, long size) {
+        return "\n[... truncated " + skipped + " bytes of " + size + " by copy-logs ...]\n";
+    }
+
+    private static String pad(int length) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            sb.append('.');
+        }
+        return sb.toString();
+    }
+
+    private static String write(LogFileWriter writer, String contents) throws Exception {
+        Path file = Files.createTempFile("log-file-writer", ".log");
+        try {
+            byte[] bytes = contents.getBytes(StandardCharsets.UTF_8);
+            Files.write(file, bytes);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            writer.write(file, bytes.length, out);
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
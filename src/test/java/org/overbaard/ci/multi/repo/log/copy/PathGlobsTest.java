@@ -0,0 +1,73 @@
+package org.overbaard.ci.multi.repo.log.copy;
+
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:kabir.khan@jboss.com">Kabir Khan</a>
+ */
+public class PathGlobsTest {
+
+    @Test
+    public void testNameGlobs() {
+        PathGlobs globs = new PathGlobs(Arrays.asList("*.log", "*.dump"));
+        Assert.assertTrue(globs.matches(Paths.get("build.log")));
+        Assert.assertTrue(globs.matches(Paths.get("module/target/test.log")));
+        Assert.assertTrue(globs.matches(Paths.get("module/target/surefire-reports/x.dump")));
+        Assert.assertFalse(globs.matches(Paths.get("module/target/build.log.txt")));
+        // Name globs are only matched against the file name, not the directories it is in
+        Assert.assertFalse(globs.matches(Paths.get("logs.log/file.txt")));
+    }
+
+    @Test
+    public void testPathGlobs() {
+        PathGlobs globs = new PathGlobs(Collections.singletonList("module/target/*.log"));
+        Assert.assertTrue(globs.matches(Paths.get("module/target/test.log")));
+        Assert.assertFalse(globs.matches(Paths.get("test.log")));
+        Assert.assertFalse(globs.matches(Paths.get("other/module/target/test.log")));
+        Assert.assertFalse(globs.matches(Paths.get("module/target/sub/test.log")));
+    }
+
+    @Test
+    public void testDoubleStarGlobsMatchAtTopLevel() {
+        PathGlobs globs = new PathGlobs(Collections.singletonList("**/target/classes"));
+        Assert.assertTrue(globs.matches(Paths.get("target/classes")));
+        Assert.assertTrue(globs.matches(Paths.get("module/target/classes")));
+        Assert.assertTrue(globs.matches(Paths.get("parent/module/target/classes")));
+        Assert.assertFalse(globs.matches(Paths.get("module/target/classes-other")));
+        Assert.assertFalse(globs.matches(Paths.get("module/target")));
+    }
+
+    @Test
+    public void testDefaultPrune() {
+        PathGlobs globs = new PathGlobs(CopyLogArtifacts.DEFAULT_PRUNE);
+        Assert.assertTrue(globs.matches(Paths.get(".git")));
+        Assert.assertTrue(globs.matches(Paths.get("ui/node_modules")));
+        Assert.assertTrue(globs.matches(Paths.get("target/classes")));
+        Assert.assertTrue(globs.matches(Paths.get("module/target/test-classes")));
+        Assert.assertTrue(globs.matches(Paths.get("module/target/generated-sources")));
+        Assert.assertFalse(globs.matches(Paths.get("module/target")));
+        Assert.assertFalse(globs.matches(Paths.get("module/target/surefire-reports")));
+    }
+
+    @Test
+    public void testRepoBackupsPrune() {
+        // The generator prunes the maven repository backups, passing their path relative to the checkout
+        PathGlobs globs = new PathGlobs(Arrays.asList(".ci-tools/repo-backups", ".ci-tools/repo-objects"));
+        Assert.assertTrue(globs.matches(Paths.get(".ci-tools/repo-backups")));
+        Assert.assertTrue(globs.matches(Paths.get(".ci-tools/repo-objects")));
+        Assert.assertFalse(globs.matches(Paths.get(".ci-tools")));
+        Assert.assertFalse(globs.matches(Paths.get(".ci-tools/other")));
+        Assert.assertFalse(globs.matches(Paths.get("module/.ci-tools/repo-backups")));
+    }
+
+    @Test
+    public void testNoGlobs() {
+        PathGlobs globs = new PathGlobs(Collections.emptyList());
+        Assert.assertFalse(globs.matches(Paths.get("build.log")));
+    }
+}